@@ -2,6 +2,7 @@ package prr.app;
 
 import prr.NetworkManager;
 import prr.exceptions.ImportFileException;
+import prr.notifications.NotificationQueue;
 import pt.tecnico.uilib.Dialog;
 
 /**
@@ -13,6 +14,15 @@ public class App {
         try (var ui = Dialog.UI) {
             var receiver = new NetworkManager();
 
+            Integer compression = Integer.getInteger("compression");
+            if (compression != null)
+                receiver.setCompressionLevel(compression);
+
+            Integer notifications = Integer.getInteger("notificationQueue");
+            if (notifications != null)
+                receiver.setNotificationQueue(notifications,
+                        NotificationQueue.OverflowPolicy.valueOf(System.getProperty("notificationOverflow", "BLOCK")));
+
             String datafile = System.getProperty("import");
             if (datafile != null) {
                 try {
@@ -70,7 +70,7 @@ interface Message {
      * @param key
      * @return string with problem description.
      */
-    static String unknownCommunicationKey(int key) {
+    static String unknownCommunicationKey(long key) {
         return "A comunicação '" + key + "' não existe.";
     }
 
@@ -78,7 +78,7 @@ interface Message {
      * @param key
      * @return string with problem description.
      */
-    public static String duplicateCommunicationKey(int key) {
+    public static String duplicateCommunicationKey(long key) {
         return "A comunicação '" + key + "' já existe.";
     }
 }
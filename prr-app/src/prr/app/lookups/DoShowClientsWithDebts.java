@@ -4,8 +4,6 @@ import prr.Network;
 import pt.tecnico.uilib.menus.Command;
 import pt.tecnico.uilib.menus.CommandException;
 import prr.app.visitors.Renderer;
-import prr.visitors.Selector;
-import prr.clients.Client;
 
 /**
  * Show clients with negative balance.
@@ -19,13 +17,7 @@ class DoShowClientsWithDebts extends Command<Network> {
     @Override
     protected final void execute() throws CommandException {
         Renderer renderer = new Renderer();
-        Selector<Client> selector = new Selector<>() {
-            @Override
-            public boolean ok(Client client) {
-                return client.getDebt() > 0;
-            };
-        };
-        _receiver.acceptSimpleClientPrinter(selector, renderer);
+        _receiver.acceptClientsWithDebtsPrinter(renderer);
         _display.popup(renderer.render());
     }
 }
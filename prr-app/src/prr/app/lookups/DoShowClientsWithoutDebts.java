@@ -1,9 +1,7 @@
 package prr.app.lookups;
 
 import prr.Network;
-import prr.clients.Client;
 import prr.app.visitors.Renderer;
-import prr.visitors.Selector;
 import pt.tecnico.uilib.menus.Command;
 import pt.tecnico.uilib.menus.CommandException;
 
@@ -19,13 +17,7 @@ class DoShowClientsWithoutDebts extends Command<Network> {
     @Override
     protected final void execute() throws CommandException {
         Renderer renderer = new Renderer();
-        Selector<Client> selector = new Selector<>() {
-            @Override
-            public boolean ok(Client client) {
-                return client.getDebt() == 0;
-            };
-        };
-        _receiver.acceptSimpleClientPrinter(selector, renderer);
+        _receiver.acceptClientsWithoutDebtsPrinter(renderer);
         _display.popup(renderer.render());
     }
 }
@@ -4,8 +4,6 @@ import prr.Network;
 import pt.tecnico.uilib.menus.Command;
 import pt.tecnico.uilib.menus.CommandException;
 import prr.app.visitors.Renderer;
-import prr.visitors.Selector;
-import prr.terminals.Terminal;
 
 /**
  * Show terminals with positive balance.
@@ -19,13 +17,7 @@ class DoShowTerminalsWithPositiveBalance extends Command<Network> {
     @Override
     protected final void execute() throws CommandException {
         Renderer renderer = new Renderer();
-        Selector<Terminal> selector = new Selector<>() {
-            @Override
-            public boolean ok(Terminal terminal) {
-                return terminal.getBalance() > 0;
-            };
-        };
-        _receiver.acceptTerminalPrinter(selector, renderer);
+        _receiver.acceptTerminalsWithPositiveBalancePrinter(renderer);
         _display.popup(renderer.render());
     }
 }
@@ -3,9 +3,7 @@ package prr.app.lookups;
 import prr.Network;
 import pt.tecnico.uilib.menus.Command;
 import pt.tecnico.uilib.menus.CommandException;
-import prr.terminals.Terminal;
 import prr.app.visitors.Renderer;
-import prr.visitors.Selector;
 
 /**
  * Show unused terminals (without communications).
@@ -19,13 +17,7 @@ class DoShowUnusedTerminals extends Command<Network> {
     @Override
     protected final void execute() throws CommandException {
         Renderer renderer = new Renderer();
-        Selector<Terminal> selector = new Selector<>() {
-            @Override
-            public boolean ok(Terminal terminal) {
-                return terminal.getCommunicationCount() == 0;
-            };
-        };
-        _receiver.acceptTerminalPrinter(selector, renderer);
+        _receiver.acceptUnusedTerminalsPrinter(renderer);
         _display.popup(renderer.render());
     }
 }
@@ -15,6 +15,7 @@ class DoShowGlobalBalance extends Command<Network> {
 
     @Override
     protected final void execute() throws CommandException {
-        _display.popup(Message.globalPaymentsAndDebts(_receiver.getGlobalPayments(), _receiver.getGlobalDebts()));
+        _display.popup(Message.globalPaymentsAndDebts(Math.round(_receiver.getGlobalPayments()),
+                Math.round(_receiver.getGlobalDebts())));
     }
 }
@@ -1,12 +1,18 @@
 package prr.app.main;
 
+import java.io.IOException;
+
 import prr.NetworkManager;
+import pt.tecnico.uilib.Display;
 import pt.tecnico.uilib.menus.DoOpenMenu;
 
 /**
  * Main menu.
  */
 public final class Menu extends pt.tecnico.uilib.menus.Menu {
+
+    private final NetworkManager _receiver;
+
     public Menu(NetworkManager receiver) {
         super(Label.TITLE, //
                 new DoOpenFile(receiver), //
@@ -16,5 +22,20 @@ public final class Menu extends pt.tecnico.uilib.menus.Menu {
                 new DoOpenMenuLookups(receiver), //
                 new DoShowGlobalBalance(receiver.getNetwork())//
         );
+        _receiver = receiver;
+    }
+
+    /**
+     * Opens the menu and, once it is left, waits for the network still being
+     * saved, telling whether that failed.
+     */
+    @Override
+    public void open() {
+        super.open();
+        try {
+            _receiver.awaitSave();
+        } catch (IOException e) {
+            new Display().popup(Message.saveFailed());
+        }
     }
 }
@@ -20,6 +20,13 @@ interface Message {
         return "O ficheiro '" + filename + "' não existe.";
     }
 
+    /**
+     * @return string with "file not saved" message.
+     */
+    static String saveFailed() {
+        return "Não foi possível guardar o ficheiro.";
+    }
+
     /**
      * @param payments
      * @param debts
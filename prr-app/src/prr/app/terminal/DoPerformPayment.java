@@ -12,14 +12,15 @@ class DoPerformPayment extends TerminalCommand {
 
     DoPerformPayment(Network context, Terminal terminal) {
         super(Label.PERFORM_PAYMENT, context, terminal);
-        addIntegerField("key", Prompt.commKey());
+        // Communication keys go past the range of integer fields
+        addStringField("key", Prompt.commKey());
     }
 
     @Override
     protected final void execute() throws CommandException {
         try {
-            _receiver.payCommunication(integerField("key"));
-        } catch (InvalidCommunicationException e) {
+            _receiver.payCommunication(Long.parseLong(stringField("key").trim()));
+        } catch (NumberFormatException | InvalidCommunicationException e) {
             _display.popup(Message.invalidCommunication());
         }
     }
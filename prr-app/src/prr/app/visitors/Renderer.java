@@ -2,7 +2,6 @@ package prr.app.visitors;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 
 import prr.clients.Client;
 import prr.communications.TextCommunication;
@@ -15,6 +14,7 @@ import prr.notifications.SilentToIdleNotification;
 import prr.terminals.BasicTerminal;
 import prr.terminals.FancyTerminal;
 import prr.terminals.Terminal;
+import prr.util.TerminalKey;
 import prr.visitors.Printer;
 
 public class Renderer implements Printer {
@@ -32,32 +32,31 @@ public class Renderer implements Printer {
 
     @Override
     public void visit(OffToSilentNotification notification) {
-        screen.add(Message.offToSilent() + "|" + notification.getId());
+        screen.add(Message.offToSilent() + "|" + TerminalKey.format(notification.getId()));
     }
 
     @Override
     public void visit(OffToIdleNotification notification) {
-        screen.add(Message.offToIdle() + "|" + notification.getId());
+        screen.add(Message.offToIdle() + "|" + TerminalKey.format(notification.getId()));
     }
 
     @Override
     public void visit(BusyToIdleNotification notification) {
-        screen.add(Message.busyToIdle() + "|" + notification.getId());
+        screen.add(Message.busyToIdle() + "|" + TerminalKey.format(notification.getId()));
     }
 
     @Override
     public void visit(SilentToIdleNotification notification) {
-        screen.add(Message.silentToIdle() + "|" + notification.getId());
+        screen.add(Message.silentToIdle() + "|" + TerminalKey.format(notification.getId()));
     }
 
     private String getTerminalFriends(Terminal terminal) {
-        ArrayList<String> terminalFriends = new ArrayList<>(terminal.getFriends());
-        Collections.sort(terminalFriends);
+        int[] terminalFriends = terminal.getFriendIds();
         String friends = "";
-        if (!terminalFriends.isEmpty()) {
+        if (terminalFriends.length > 0) {
             friends += "|";
-            for (String friend : terminalFriends)
-                friends += friend + ",";
+            for (int friend : terminalFriends)
+                friends += TerminalKey.format(friend) + ",";
             friends = friends.substring(0, friends.length() - 1);
         }
         return friends;
@@ -79,26 +78,26 @@ public class Renderer implements Printer {
 
     @Override
     public void visit(TextCommunication communication) {
-        screen.add(Message.textCommunication() + "|" + communication.getKey() + "|" + communication.getSenderKey() + "|"
-                + communication.getReceiverKey() + "|" + communication.getUnits() + "|"
+        screen.add(Message.textCommunication() + "|" + communication.getKey() + "|" + TerminalKey.format(communication.getSenderId()) + "|"
+                + TerminalKey.format(communication.getReceiverId()) + "|" + communication.getUnits() + "|"
                 + Math.round(communication.getPrice()) + "|"
                 + (communication.isFinished() ? Message.finishedCommunication() : Message.ongoingCommunication()));
     }
 
     @Override
     public void visit(VideoCommunication communication) {
-        screen.add(Message.videoCommunication() + "|" + communication.getKey() + "|" + communication.getSenderKey()
+        screen.add(Message.videoCommunication() + "|" + communication.getKey() + "|" + TerminalKey.format(communication.getSenderId())
                 + "|"
-                + communication.getReceiverKey() + "|" + communication.getUnits() + "|"
+                + TerminalKey.format(communication.getReceiverId()) + "|" + communication.getUnits() + "|"
                 + Math.round(communication.getPrice()) + "|"
                 + (communication.isFinished() ? Message.finishedCommunication() : Message.ongoingCommunication()));
     }
 
     @Override
     public void visit(VoiceCommunication communication) {
-        screen.add(Message.voiceCommunication() + "|" + communication.getKey() + "|" + communication.getSenderKey()
+        screen.add(Message.voiceCommunication() + "|" + communication.getKey() + "|" + TerminalKey.format(communication.getSenderId())
                 + "|"
-                + communication.getReceiverKey() + "|" + communication.getUnits() + "|"
+                + TerminalKey.format(communication.getReceiverId()) + "|" + communication.getUnits() + "|"
                 + Math.round(communication.getPrice()) + "|"
                 + (communication.isFinished() ? Message.finishedCommunication() : Message.ongoingCommunication()));
     }
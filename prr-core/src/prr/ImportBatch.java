@@ -0,0 +1,52 @@
+package prr;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import prr.clients.Client;
+import prr.communications.Communication;
+import prr.terminals.Terminal;
+
+/**
+ * The historical communications of an import, whose effects on the balances
+ * and on the client types are applied once, when the import ends.
+ *
+ * Communications are priced with the type their sender's client had when the
+ * import started; each terminal then gets a single balance update for all it
+ * made, and each client a single type update.
+ */
+class ImportBatch {
+
+    /** Paid and debt totals of the communications made by each terminal */
+    private final Map<Terminal, double[]> totals = new LinkedHashMap<>();
+
+    /** Clients whose type is updated at the end */
+    private final Set<Client> clients = new LinkedHashSet<>();
+
+    /**
+     * Adds the price of a communication to its sender's totals.
+     *
+     * @param communication a communication, already registered by its sender
+     */
+    void charge(Communication communication) {
+        Terminal sender = communication.getSender();
+        double[] total = totals.computeIfAbsent(sender, terminal -> new double[2]);
+        total[communication.isPaid() ? 0 : 1] += communication.getPrice();
+        clients.add(sender.getOwner());
+    }
+
+    /**
+     * Applies the totals to the terminals, and then updates the types of their
+     * clients.
+     */
+    void finish() {
+        for (Map.Entry<Terminal, double[]> total : totals.entrySet())
+            total.getKey().updateBalance(total.getValue()[0], total.getValue()[1]);
+        for (Client client : clients)
+            client.updateType();
+        totals.clear();
+        clients.clear();
+    }
+}
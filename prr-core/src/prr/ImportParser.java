@@ -0,0 +1,120 @@
+package prr;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streaming reader of import files. Lines are read through large NIO buffers
+ * and split into fields by hand, without regular expressions.
+ */
+class ImportParser implements Closeable {
+
+    /** Size of the byte and char buffers used when reading the file */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** Field separator in a line */
+    static final char FIELD_SEPARATOR = '|';
+
+    /** Separator of the keys in a friends list */
+    static final char LIST_SEPARATOR = ',';
+
+    private final BufferedReader reader;
+    private long lineCount = 0;
+
+    /**
+     * @param filename name of the text input file
+     * @throws IOException if the file can't be opened
+     */
+    ImportParser(String filename) throws IOException {
+        FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+        // Bytes the charset can't decode are replaced, as a FileReader does
+        CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        reader = new BufferedReader(Channels.newReader(channel, decoder, BUFFER_SIZE), BUFFER_SIZE);
+    }
+
+    /**
+     * @return the fields of the next line, or null at the end of the file
+     * @throws IOException if there is an IO error while reading
+     */
+    String[] next() throws IOException {
+        String line = nextLine();
+        return line == null ? null : split(line, FIELD_SEPARATOR);
+    }
+
+    /**
+     * @return the next line, unsplit, or null at the end of the file
+     * @throws IOException if there is an IO error while reading
+     */
+    String nextLine() throws IOException {
+        String line = reader.readLine();
+        if (line != null)
+            lineCount++;
+        return line;
+    }
+
+    /**
+     * @return the number of lines read so far
+     */
+    long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Splits a string around a separator, with the same result as
+     * {@link String#split(String)} for a single literal character: trailing
+     * empty fields are dropped.
+     *
+     * @param text      the string to split
+     * @param separator the separator
+     * @return the fields
+     */
+    static String[] split(String text, char separator) {
+        // An empty string splits into itself
+        if (text.isEmpty())
+            return new String[] { text };
+
+        String[] fields = new String[8];
+        int count = 0;
+        int start = 0;
+        int end;
+        while ((end = text.indexOf(separator, start)) >= 0) {
+            if (count == fields.length)
+                fields = Arrays.copyOf(fields, count * 2);
+            fields[count++] = text.substring(start, end);
+            start = end + 1;
+        }
+        if (count == fields.length)
+            fields = Arrays.copyOf(fields, count + 1);
+        fields[count++] = text.substring(start);
+
+        while (count > 0 && fields[count - 1].isEmpty())
+            count--;
+        return Arrays.copyOf(fields, count);
+    }
+
+    /**
+     * Joins fields back into the line they came from, for error reports.
+     *
+     * @param fields the fields
+     * @return the line
+     */
+    static String join(String[] fields) {
+        return String.join(String.valueOf(FIELD_SEPARATOR), fields);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
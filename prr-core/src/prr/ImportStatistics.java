@@ -0,0 +1,39 @@
+package prr;
+
+/**
+ * Figures about a completed import.
+ */
+public class ImportStatistics {
+
+    private final long lines;
+    private final long nanos;
+
+    /**
+     * @param lines number of lines imported
+     * @param nanos time taken, in nanoseconds
+     */
+    public ImportStatistics(long lines, long nanos) {
+        this.lines = lines;
+        this.nanos = nanos;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return the import throughput, in lines per second
+     */
+    public double getLinesPerSecond() {
+        return nanos == 0 ? 0 : lines * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return lines + " lines in " + nanos / 1_000_000 + " ms (" + Math.round(getLinesPerSecond()) + " lines/s)";
+    }
+}
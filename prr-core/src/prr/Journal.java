@@ -0,0 +1,666 @@
+package prr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import prr.clients.Client;
+import prr.exceptions.InvalidCommunicationException;
+import prr.exceptions.InvalidOperationException;
+import prr.exceptions.KeyRelatedException;
+import prr.exceptions.NotificationsAlreadyDisabledException;
+import prr.exceptions.NotificationsAlreadyEnabledException;
+import prr.exceptions.TerminalStateException;
+import prr.exceptions.UnrecognizedTerminalTypeException;
+import prr.terminals.Terminal;
+import prr.util.TerminalKey;
+
+/**
+ * Append-only log of the changes made to a network since its last snapshot.
+ *
+ * Once a network is saved to or loaded from a snapshot, every change is
+ * encoded as a numbered record and appended to a journal next to the snapshot
+ * as it is made, before the operation returns; saving to the same file only
+ * forces the journal to disk, so its cost follows the number of changes rather
+ * than the size of the network, and a crash loses no change the system had
+ * been handed. Loading replays the journal records numbered after the
+ * snapshot, so it also brings back the changes made since the last save.
+ *
+ * When the journal grows past half the size of the {@link Segments} of the
+ * snapshot it changed, the save writes those segments anew, in the background.
+ * Until the new snapshot replaces the file, changes are still appended to the
+ * old journal, so the old snapshot and journal on disk remain a full copy of
+ * the network to start from; then they start the journal of the new snapshot.
+ * Replaying skips the records a snapshot already folded, so the old journal is
+ * right for the new snapshot too, until replaced. A record that can't be
+ * written is kept and written again with the next one, and saving fails while
+ * it can't.
+ *
+ * Communications are recorded with the key an attempt takes, because a failed
+ * attempt still consumes the key and registers observers; replaying the
+ * attempt repeats both, under the same key. Attempts rejected before that
+ * change nothing and are not recorded. Every other change is recorded
+ * once it went through, so a record that fails to replay means the journal
+ * doesn't belong to the snapshot, and loading fails.
+ *
+ * Records are added under the journal's own lock, taken after the network's
+ * when both are needed. Concurrent operations change disjoint clients and
+ * terminals, so their records replay to the same network in any order.
+ */
+public class Journal {
+
+    /** "PRRJ" */
+    private static final int MAGIC = 0x5052524A;
+
+    private static final short VERSION = 1;
+
+    /** Suffix added to the snapshot name to name its journal */
+    static final String SUFFIX = ".journal";
+
+    /** Journals smaller than this are never folded */
+    private static final long MIN_COMPACTION_SIZE = 1 << 16;
+
+    private static final byte REGISTER_CLIENT = 0;
+    private static final byte REGISTER_TERMINAL = 1;
+    private static final byte ADD_FRIEND = 2;
+    private static final byte REMOVE_FRIEND = 3;
+    private static final byte SEND_TEXT = 4;
+    private static final byte START_INTERACTIVE = 5;
+    private static final byte END_INTERACTIVE = 6;
+    private static final byte PAY = 7;
+    private static final byte TURN_OFF = 8;
+    private static final byte SILENCE = 9;
+    private static final byte TURN_ON = 10;
+    private static final byte ENABLE_NOTIFICATIONS = 11;
+    private static final byte DISABLE_NOTIFICATIONS = 12;
+    private static final byte CLEAR_NOTIFICATIONS = 13;
+
+    private final Network network;
+
+    /** Records not yet written to the journal file */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    /**
+     * Records made since a new snapshot was taken, for the journal that starts
+     * once the snapshot replaces the file
+     */
+    private final ByteArrayOutputStream carried = new ByteArrayOutputStream();
+    private boolean replacing = false;
+
+    /** Journal file records are appended to, or null if they are held back */
+    private Path file;
+    private FileChannel channel;
+
+    /** Why the pending records couldn't be written, if they couldn't */
+    private IOException failure;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final CRC32 crc = new CRC32();
+
+    /** Number of the last record */
+    private long sequence = 0;
+
+    /** Snapshot this journal extends, or null if the next save must write one */
+    private String snapshot;
+
+    /** Segments of the snapshot, or null if it isn't split in segments */
+    private Segments segments;
+
+    private boolean replaying = false;
+
+    /**
+     * @param network the network whose changes are recorded
+     */
+    Journal(Network network) {
+        this.network = network;
+    }
+
+    /**
+     * @return the number of the last record, folded into a snapshot written now
+     */
+    synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @param sequence the number of the last record folded into the snapshot the
+     *                 network was read from
+     */
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    private boolean isRecording() {
+        return snapshot != null && !replaying;
+    }
+
+    /**
+     * Stops recording until the next snapshot, for changes too large to be worth
+     * journaling, such as an import.
+     */
+    synchronized void requireSnapshot() {
+        snapshot = null;
+        segments = null;
+        pending.reset();
+        carried.reset();
+        replacing = false;
+        close();
+    }
+
+    /**
+     * @return the segments of the snapshot, marked with those changed since, or
+     *         null if it isn't split in segments
+     */
+    Segments getSegments() {
+        return segments;
+    }
+
+    /**
+     * @param segments the segments of the snapshot the network was read from,
+     *                 before its journal is replayed
+     */
+    void setSegments(Segments segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * @param filename the file being saved
+     * @return true if the pending records can be appended to the journal of the
+     *         file instead of writing a new snapshot
+     */
+    synchronized boolean canAppendTo(String filename) {
+        return filename.equals(snapshot);
+    }
+
+    /**
+     * @return true if the journal is large enough to be folded into a new
+     *         snapshot
+     * @throws IOException if the sizes of the files can't be read
+     */
+    synchronized boolean shouldCompact() throws IOException {
+        Path journal = Path.of(snapshot + SUFFIX);
+        long size = pending.size() + (Files.exists(journal) ? Files.size(journal) : 0);
+        long rewritten = segments != null ? segments.getDirtySize() : Files.size(Path.of(snapshot));
+        return size >= Math.max(MIN_COMPACTION_SIZE, rewritten / 2);
+    }
+
+    /**
+     * Makes a snapshot just taken the base of the journal. Until the snapshot
+     * replaces the file, see {@link #replaced(String)}, the records made are
+     * kept for its journal, and still appended to the journal of the file if
+     * the snapshot replaces the one it extends.
+     *
+     * @param filename the file the snapshot is being written to
+     * @param segments the segments of the snapshot
+     */
+    synchronized void rebase(String filename, Segments segments) {
+        // the old journal is only right for the new snapshot if it holds every
+        // record the snapshot folded
+        if (!filename.equals(snapshot) || pending.size() > 0) {
+            close();
+            file = null;
+        }
+        pending.reset();
+        carried.reset();
+        replacing = true;
+        snapshot = filename;
+        this.segments = segments;
+    }
+
+    /**
+     * Starts the journal of a snapshot that just replaced a file, with the
+     * records made since it was taken; the file's old journal is replaced
+     * atomically.
+     *
+     * @param filename the snapshot
+     * @throws IOException if the journal can't be written
+     */
+    synchronized void replaced(String filename) throws IOException {
+        Path journal = Path.of(filename + SUFFIX);
+        close();
+        if (!replacing || !filename.equals(snapshot)) {
+            // nothing was kept for it
+            Files.deleteIfExists(journal);
+            return;
+        }
+        try {
+            if (carried.size() == 0) {
+                Files.deleteIfExists(journal);
+            } else {
+                Path temporary = Path.of(journal + ".tmp");
+                try (FileChannel fresh = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    writeFully(fresh, header());
+                    writeFully(fresh, ByteBuffer.wrap(carried.toByteArray()));
+                    fresh.force(false);
+                }
+                Files.move(temporary, journal, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            // a journal left from another network must not be replayed on
+            // the snapshot
+            try {
+                Files.deleteIfExists(journal);
+            } catch (IOException deleteFailure) {
+                e.addSuppressed(deleteFailure);
+            }
+            throw e;
+        }
+        pending.reset();
+        carried.reset();
+        replacing = false;
+        file = journal;
+    }
+
+    /**
+     * Forces the records made so far to disk, writing those that couldn't be
+     * written before.
+     *
+     * @throws IOException if the journal can't be written
+     */
+    synchronized void flush() throws IOException {
+        write();
+        if (pending.size() > 0)
+            throw failure;
+        if (channel != null)
+            channel.force(false);
+    }
+
+    /**
+     * Closes the journal file, for a network no longer in use.
+     */
+    synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // every record written was already handed to the system
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Appends the pending records to the journal file. If they can't be, they
+     * are kept, and anything written of them is cut off again.
+     */
+    private void write() {
+        if (file == null || pending.size() == 0)
+            return;
+        long start = -1;
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+                if (channel.size() == 0)
+                    writeFully(channel, header());
+            }
+            start = channel.size();
+            writeFully(channel, ByteBuffer.wrap(pending.toByteArray()));
+            pending.reset();
+            failure = null;
+        } catch (IOException e) {
+            failure = e;
+            if (start >= 0)
+                try {
+                    channel.truncate(start);
+                } catch (IOException truncateFailure) {
+                    e.addSuppressed(truncateFailure);
+                }
+            close();
+        }
+    }
+
+    private static ByteBuffer header() {
+        return ByteBuffer.allocate(6).putInt(MAGIC).putShort(VERSION).flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+    }
+
+    /**
+     * Replays the journal of a snapshot the network was just read from, and
+     * makes that snapshot the base of the journal. A torn last record, left by
+     * a crash while saving, is ignored.
+     *
+     * @param filename the snapshot
+     * @throws IOException if the journal can't be read or is corrupt
+     */
+    void replay(String filename) throws IOException {
+        Path journal = Path.of(filename + SUFFIX);
+        if (Files.exists(journal)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(journal));
+            int valid = 0;
+            replaying = true;
+            try {
+                if (buffer.remaining() >= 6) {
+                    if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION)
+                        throw new StreamCorruptedException("Not a network journal");
+                    valid = buffer.position();
+                }
+                while (valid > 0 && buffer.remaining() >= 8) {
+                    int length = buffer.getInt();
+                    int checksum = buffer.getInt();
+                    if (length < 9 || length > buffer.remaining())
+                        break;
+                    crc.reset();
+                    crc.update(buffer.array(), buffer.position(), length);
+                    if ((int) crc.getValue() != checksum)
+                        break;
+                    int end = buffer.position() + length;
+                    long number = buffer.getLong();
+                    if (number > sequence) {
+                        apply(buffer.get(), buffer);
+                        sequence = number;
+                    }
+                    buffer.position(end);
+                    valid = end;
+                }
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                StreamCorruptedException corrupt = new StreamCorruptedException("Corrupt network journal");
+                corrupt.initCause(e);
+                throw corrupt;
+            } finally {
+                replaying = false;
+            }
+            network.saved();
+
+            // Drop a torn record, so the records appended next are not lost
+            // behind it
+            if (valid < buffer.limit())
+                try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+                    channel.truncate(valid);
+                }
+        }
+        pending.reset();
+        snapshot = filename;
+        file = journal;
+    }
+
+    private void apply(byte operation, ByteBuffer buffer) throws StreamCorruptedException {
+        try {
+            switch (operation) {
+                case REGISTER_CLIENT:
+                    network.registerClient(getString(buffer), getString(buffer), buffer.getInt());
+                    break;
+                case REGISTER_TERMINAL:
+                    network.registerTerminal(getString(buffer), getString(buffer), getString(buffer));
+                    break;
+                case ADD_FRIEND:
+                    terminal(buffer).addFriend(terminal(buffer));
+                    break;
+                case REMOVE_FRIEND:
+                    terminal(buffer).removeFriend(TerminalKey.format(buffer.getInt()), network);
+                    break;
+                case SEND_TEXT:
+                    sender(buffer).sendText(getString(buffer), getString(buffer), network);
+                    break;
+                case START_INTERACTIVE:
+                    sender(buffer).startInteractiveCommunication(getString(buffer), getString(buffer), network);
+                    break;
+                case END_INTERACTIVE:
+                    terminal(buffer).endCommunication(buffer.getInt());
+                    break;
+                case PAY:
+                    terminal(buffer).payCommunication(buffer.getLong());
+                    break;
+                case TURN_OFF:
+                    terminal(buffer).toOff();
+                    break;
+                case SILENCE:
+                    terminal(buffer).toSilence();
+                    break;
+                case TURN_ON:
+                    terminal(buffer).toOn();
+                    break;
+                case ENABLE_NOTIFICATIONS:
+                    network.enableNotifications(getString(buffer));
+                    break;
+                case DISABLE_NOTIFICATIONS:
+                    network.disableNotifications(getString(buffer));
+                    break;
+                case CLEAR_NOTIFICATIONS:
+                    network.getClient(getString(buffer)).clearNotifications();
+                    break;
+                default:
+                    throw new StreamCorruptedException("Unknown journal operation " + operation);
+            }
+        } catch (KeyRelatedException | TerminalStateException | InvalidOperationException
+                | InvalidCommunicationException | UnrecognizedTerminalTypeException
+                | NotificationsAlreadyEnabledException | NotificationsAlreadyDisabledException e) {
+            // An attempt at a communication failed the same way when it was
+            // recorded; anything else was only recorded once it went through
+            if (!isAttempt(operation))
+                throw diverged(operation, e);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw diverged(operation, e);
+        }
+    }
+
+    private static boolean isAttempt(byte operation) {
+        return operation == SEND_TEXT || operation == START_INTERACTIVE;
+    }
+
+    private static StreamCorruptedException diverged(byte operation, Exception cause) {
+        StreamCorruptedException diverged = new StreamCorruptedException(
+                "Journal operation " + operation + " doesn't apply to the network");
+        diverged.initCause(cause);
+        return diverged;
+    }
+
+    private Terminal terminal(ByteBuffer buffer) throws StreamCorruptedException {
+        Terminal terminal = network.findTerminal(buffer.getInt());
+        if (terminal == null)
+            throw new StreamCorruptedException("Journal refers to an unknown terminal");
+        return terminal;
+    }
+
+    /** Reads the sender of a communication, and the key it took, to be taken again */
+    private Terminal sender(ByteBuffer buffer) throws StreamCorruptedException {
+        Terminal sender = terminal(buffer);
+        network.claimCommunicationKey(buffer.getLong());
+        return sender;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Dirties the segments a change affects, even while replaying, since the
+     * segments on disk don't hold the change either.
+     */
+    private void touch(Terminal terminal) {
+        if (segments != null && terminal != null)
+            segments.touch(terminal);
+    }
+
+    private void touch(Client client) {
+        if (segments != null && client != null)
+            segments.touch(client);
+    }
+
+    /** Starts a record, if the journal is recording */
+    private boolean begin(byte operation) {
+        if (!isRecording())
+            return false;
+        record.reset();
+        putLong(++sequence);
+        record.write(operation);
+        return true;
+    }
+
+    private void putInt(int value) {
+        record.write(value >>> 24);
+        record.write(value >>> 16);
+        record.write(value >>> 8);
+        record.write(value);
+    }
+
+    private void putLong(long value) {
+        putInt((int) (value >>> 32));
+        putInt((int) value);
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        record.writeBytes(bytes);
+    }
+
+    /**
+     * Frames the record just built by its length and checksum, and appends it
+     * to the journal file.
+     */
+    private void end() {
+        byte[] bytes = record.toByteArray();
+        crc.reset();
+        crc.update(bytes);
+        record.reset();
+        putInt(bytes.length);
+        putInt((int) crc.getValue());
+        record.writeBytes(bytes);
+        byte[] framed = record.toByteArray();
+        if (file != null)
+            pending.writeBytes(framed);
+        if (replacing)
+            carried.writeBytes(framed);
+        write();
+        network.changed();
+    }
+
+    synchronized void clientRegistered(Client client) {
+        touch(client);
+        if (begin(REGISTER_CLIENT)) {
+            putString(client.getKey());
+            putString(client.getName());
+            putInt(client.getNif());
+            end();
+        }
+    }
+
+    synchronized void terminalRegistered(Terminal terminal, String type) {
+        touch(terminal.getOwner());
+        if (begin(REGISTER_TERMINAL)) {
+            putString(terminal.getKey());
+            putString(type);
+            putString(terminal.getOwnerKey());
+            end();
+        }
+    }
+
+    public synchronized void friendAdded(Terminal terminal, Terminal friend) {
+        touch(terminal);
+        if (begin(ADD_FRIEND)) {
+            putInt(terminal.getId());
+            putInt(friend.getId());
+            end();
+        }
+    }
+
+    public synchronized void friendRemoved(Terminal terminal, Terminal friend) {
+        touch(terminal);
+        if (begin(REMOVE_FRIEND)) {
+            putInt(terminal.getId());
+            putInt(friend.getId());
+            end();
+        }
+    }
+
+    synchronized void textSent(long key, Terminal sender, Terminal receiver, String message) {
+        touch(sender);
+        touch(receiver);
+        if (begin(SEND_TEXT)) {
+            putInt(sender.getId());
+            putLong(key);
+            putString(receiver.getKey());
+            putString(message);
+            end();
+        }
+    }
+
+    synchronized void interactiveStarted(long key, Terminal sender, Terminal receiver, String type) {
+        touch(sender);
+        touch(receiver);
+        if (begin(START_INTERACTIVE)) {
+            putInt(sender.getId());
+            putLong(key);
+            putString(receiver.getKey());
+            putString(type);
+            end();
+        }
+    }
+
+    public synchronized void interactiveEnded(Terminal sender, int units) {
+        touch(sender);
+        if (sender.getCurrentCommunication() != null)
+            touch(sender.getCurrentCommunication().getReceiver());
+        if (begin(END_INTERACTIVE)) {
+            putInt(sender.getId());
+            putInt(units);
+            end();
+        }
+    }
+
+    public synchronized void paid(Terminal terminal, long communication) {
+        touch(terminal);
+        if (begin(PAY)) {
+            putInt(terminal.getId());
+            putLong(communication);
+            end();
+        }
+    }
+
+    public void turnedOff(Terminal terminal) {
+        recordTerminal(TURN_OFF, terminal);
+    }
+
+    public void silenced(Terminal terminal) {
+        recordTerminal(SILENCE, terminal);
+    }
+
+    public void turnedOn(Terminal terminal) {
+        recordTerminal(TURN_ON, terminal);
+    }
+
+    private synchronized void recordTerminal(byte operation, Terminal terminal) {
+        touch(terminal);
+        if (begin(operation)) {
+            putInt(terminal.getId());
+            end();
+        }
+    }
+
+    void notificationsEnabled(Client client) {
+        recordClient(ENABLE_NOTIFICATIONS, client);
+    }
+
+    void notificationsDisabled(Client client) {
+        recordClient(DISABLE_NOTIFICATIONS, client);
+    }
+
+    void notificationsCleared(Client client) {
+        recordClient(CLEAR_NOTIFICATIONS, client);
+    }
+
+    private synchronized void recordClient(byte operation, Client client) {
+        touch(client);
+        if (begin(operation)) {
+            putString(client.getKey());
+            end();
+        }
+    }
+}
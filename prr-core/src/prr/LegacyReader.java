@@ -0,0 +1,233 @@
+package prr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import prr.clients.Client;
+import prr.communications.Communication;
+import prr.communications.InteractiveCommunication;
+import prr.notifications.BusyToIdleNotification;
+import prr.notifications.Notification;
+import prr.notifications.OffToIdleNotification;
+import prr.notifications.OffToSilentNotification;
+import prr.notifications.SilentToIdleNotification;
+import prr.terminals.BasicTerminal;
+import prr.terminals.FancyTerminal;
+import prr.terminals.Terminal;
+import prr.terminals.states.TerminalState;
+import prr.util.NaturalLanguageTextComparator;
+import prr.util.TerminalKey;
+
+/**
+ * Reads a network from a file saved by the original release, which held a
+ * serialized {@link Network} in a layout none of the classes keep.
+ *
+ * The classes named in the file are read into the mirrors of their old
+ * layout in {@link prr.legacy}, which match them by simple name and serial
+ * version, and the network is then rebuilt from those the way a
+ * {@link SnapshotReader} rebuilds it. Only the classes of the original release
+ * are resolved.
+ */
+class LegacyReader {
+
+    /** Classes of the original release, and what they are read as */
+    private static final Map<String, Class<?>> CLASSES = new HashMap<>();
+
+    static {
+        register("prr", prr.legacy.Network.class);
+        register("prr.clients", prr.legacy.Client.class, prr.legacy.PriceCalculator.class,
+                prr.legacy.BasePlan.class);
+        register("prr.clients.types", prr.legacy.ClientType.class, prr.legacy.Normal.class, prr.legacy.Gold.class,
+                prr.legacy.Platinum.class);
+        register("prr.notifications", prr.legacy.InAppNotifications.class, prr.legacy.Notification.class,
+                prr.legacy.OffToIdleNotification.class, prr.legacy.OffToSilentNotification.class,
+                prr.legacy.BusyToIdleNotification.class, prr.legacy.SilentToIdleNotification.class);
+        register("prr.communications", prr.legacy.Communication.class, prr.legacy.InteractiveCommunication.class,
+                prr.legacy.TextCommunication.class, prr.legacy.VoiceCommunication.class,
+                prr.legacy.VideoCommunication.class);
+        register("prr.terminals", prr.legacy.Terminal.class, prr.legacy.BasicTerminal.class,
+                prr.legacy.FancyTerminal.class);
+        register("prr.terminals.states", prr.legacy.TerminalState.class, prr.legacy.Idle.class,
+                prr.legacy.Busy.class, prr.legacy.Off.class, prr.legacy.Silence.class);
+        // its layout never changed
+        CLASSES.put(NaturalLanguageTextComparator.class.getName(), NaturalLanguageTextComparator.class);
+    }
+
+    private static void register(String originalPackage, Class<?>... mirrors) {
+        for (Class<?> mirror : mirrors)
+            CLASSES.put(originalPackage + "." + mirror.getSimpleName(), mirror);
+    }
+
+    /** Resolves the classes of the original release to their mirrors */
+    private static class LegacyInputStream extends ObjectInputStream {
+
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!desc.getName().startsWith("prr."))
+                return super.resolveClass(desc);
+            Class<?> mirror = CLASSES.get(desc.getName());
+            if (mirror == null)
+                throw new InvalidClassException(desc.getName(), "Not a class of a saved network");
+            return mirror;
+        }
+    }
+
+    private final Network network = new Network();
+    private final Map<prr.legacy.Client, Client> clients = new IdentityHashMap<>();
+    private final Map<String, Terminal> terminals = new HashMap<>();
+    private final Map<prr.legacy.Communication, Communication> communications = new IdentityHashMap<>();
+    private double globalPayments = 0;
+    private double globalDebts = 0;
+
+    /**
+     * @param in the contents of the file
+     * @return the network held in it
+     * @throws IOException            if the file can't be read or is corrupt
+     * @throws ClassNotFoundException if it refers to an unknown class
+     */
+    static Network read(InputStream in) throws IOException, ClassNotFoundException {
+        prr.legacy.Network saved;
+        try (ObjectInputStream ois = new LegacyInputStream(in)) {
+            saved = (prr.legacy.Network) ois.readObject();
+        } catch (ClassCastException e) {
+            throw new InvalidClassException("Not a saved network");
+        }
+        return new LegacyReader().convert(saved);
+    }
+
+    private Network convert(prr.legacy.Network saved) {
+        for (prr.legacy.Client old : saved.getClients())
+            clients.put(old, newClient(old));
+        for (prr.legacy.Terminal old : saved.getTerminals()) {
+            Client owner = clients.get(old.getOwner());
+            int id = TerminalKey.parse(old.getKey());
+            Terminal terminal = old instanceof prr.legacy.FancyTerminal ? new FancyTerminal(id, owner)
+                    : new BasicTerminal(id, owner);
+            terminal.setState(state(terminal, old.getState()));
+            if (old.getSavedState() != null)
+                terminal.saveState(state(terminal, old.getSavedState()));
+            terminals.put(old.getKey(), terminal);
+        }
+
+        for (prr.legacy.Terminal old : saved.getTerminals())
+            readCommunications(old);
+
+        for (prr.legacy.Terminal old : saved.getTerminals()) {
+            Terminal terminal = terminals.get(old.getKey());
+            for (String friend : old.getFriends())
+                terminal.addFriend(terminals.get(friend));
+            for (prr.legacy.Client observer : old.getTextCommunicationObservers())
+                terminal.registerTextCommunicationObserver(clients.get(observer));
+            for (prr.legacy.Client observer : old.getInteractiveCommunicationObservers())
+                terminal.registerInteractiveCommunicationObserver(clients.get(observer));
+            if (old.getCurrentCommunication() != null)
+                terminal.setCurrentCommunication(
+                        (InteractiveCommunication) communications.get(old.getCurrentCommunication()));
+        }
+
+        // totals were worked out from the communications, so they are restored
+        // from them too
+        for (Map.Entry<prr.legacy.Client, Client> entry : clients.entrySet()) {
+            Client client = entry.getValue();
+            double paid = 0;
+            double debt = 0;
+            for (prr.legacy.Terminal old : entry.getKey().getTerminals()) {
+                Terminal terminal = terminals.get(old.getKey());
+                client.addTerminal(terminal);
+                paid += terminal.getPaid();
+                debt += terminal.getDebt();
+            }
+            client.restoreCounters(entry.getKey().getTextCount(), entry.getKey().getVideoCount(), paid, debt);
+        }
+        for (prr.legacy.Terminal old : saved.getTerminals())
+            network.restoreTerminal(terminals.get(old.getKey()));
+        for (prr.legacy.Client old : saved.getClients())
+            network.restoreClient(clients.get(old));
+        network.restoreCounters(saved.getCommunicationKey(), globalPayments, globalDebts);
+        return network;
+    }
+
+    private Client newClient(prr.legacy.Client old) {
+        Client client = new Client(old.getName(), old.getKey(), old.getNif(), network);
+        if (old.getType() instanceof prr.legacy.Gold)
+            client.setType(client.getGold());
+        else if (old.getType() instanceof prr.legacy.Platinum)
+            client.setType(client.getPlatinum());
+        if (!old.hasActiveNotifications())
+            client.disableNotifications();
+        for (prr.legacy.Notification notification : old.getNotifications())
+            client.queueNotification(newNotification(notification));
+        return client;
+    }
+
+    /**
+     * Adds the communications made and received by a terminal to it, creating
+     * each the first time it is met, and restores the terminal's totals.
+     */
+    private void readCommunications(prr.legacy.Terminal old) {
+        Terminal terminal = terminals.get(old.getKey());
+        double paid = 0;
+        double debt = 0;
+        for (prr.legacy.Communication made : old.getMadeCommunications().values()) {
+            Communication communication = communication(made);
+            terminal.restoreMadeCommunication(communication);
+            network.registerCommunication(communication);
+            if (made.isPaid())
+                paid += made.getPrice();
+            else
+                debt += made.getPrice();
+        }
+        for (prr.legacy.Communication received : old.getReceivedCommunications().values())
+            terminal.restoreReceivedCommunication(communication(received));
+        terminal.restoreBalance(paid, debt);
+        globalPayments += paid;
+        globalDebts += debt;
+    }
+
+    private Communication communication(prr.legacy.Communication old) {
+        Communication communication = communications.get(old);
+        if (communication == null) {
+            byte kind = old instanceof prr.legacy.TextCommunication ? Snapshot.TEXT
+                    : old instanceof prr.legacy.VoiceCommunication ? Snapshot.VOICE : Snapshot.VIDEO;
+            byte flags = (byte) ((old.isPaid() ? Snapshot.PAID : 0) | (old.isFinished() ? Snapshot.FINISHED : 0));
+            String message = old instanceof prr.legacy.TextCommunication
+                    ? ((prr.legacy.TextCommunication) old).getMessage()
+                    : null;
+            communication = SnapshotReader.newCommunication(old.getKey(), kind, terminals.get(old.getSender().getKey()),
+                    terminals.get(old.getReceiver().getKey()), flags, old.getUnits(), old.getPrice(), message);
+            communications.put(old, communication);
+        }
+        return communication;
+    }
+
+    private static TerminalState state(Terminal terminal, prr.legacy.TerminalState old) {
+        if (old instanceof prr.legacy.Busy)
+            return terminal.getBusyState();
+        if (old instanceof prr.legacy.Off)
+            return terminal.getOffState();
+        if (old instanceof prr.legacy.Silence)
+            return terminal.getSilenceState();
+        return terminal.getIdleState();
+    }
+
+    private static Notification newNotification(prr.legacy.Notification old) {
+        int terminalId = TerminalKey.parse(old.getTerminalId());
+        if (old instanceof prr.legacy.OffToIdleNotification)
+            return new OffToIdleNotification(terminalId);
+        if (old instanceof prr.legacy.OffToSilentNotification)
+            return new OffToSilentNotification(terminalId);
+        if (old instanceof prr.legacy.BusyToIdleNotification)
+            return new BusyToIdleNotification(terminalId);
+        return new SilentToIdleNotification(terminalId);
+    }
+}
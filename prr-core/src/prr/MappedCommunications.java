@@ -0,0 +1,269 @@
+package prr;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import prr.communications.Communication;
+import prr.terminals.LazyCommunications;
+import prr.terminals.Terminal;
+import prr.util.LongHashMap;
+
+/**
+ * The communications of a network read from the mapped segments of a
+ * {@link Snapshot}.
+ *
+ * A communication is decoded the first time a terminal or the network-wide log
+ * needs it, and kept so that every later use gets the same object. As a
+ * collection, it holds the communications that were in the network-wide log
+ * when the snapshot was written, in key order.
+ *
+ * Terminals of different clients may load their communications concurrently,
+ * so the decoded ones are kept under the collection's lock.
+ */
+class MappedCommunications extends AbstractCollection<Communication> {
+
+    /** Size of an index entry: the key and the offset of its record */
+    private static final int ENTRY_SIZE = 16;
+
+    /** The communication records of a segment */
+    private static final class Segment {
+
+        private final SnapshotFile file;
+
+        /** Offset of the first communication record */
+        private final long start;
+
+        /** Number of communication records */
+        private final int records;
+
+        /** Offset of the index of the records by key */
+        private final long index;
+
+        private Segment(SnapshotFile file, long start, int records, long index) {
+            this.file = file;
+            this.start = start;
+            this.records = records;
+            this.index = index;
+        }
+    }
+
+    private final Network network;
+    private final List<Segment> segments = new ArrayList<>();
+
+    /** Number of communications in the network-wide log */
+    private final int logged;
+
+    /** Communications decoded so far, by key */
+    private final LongHashMap<Communication> loaded = new LongHashMap<>();
+
+    /**
+     * @param network the network read from the snapshot, holding every terminal
+     * @param logged  number of communications in the network-wide log
+     */
+    MappedCommunications(Network network, int logged) {
+        this.network = network;
+        this.logged = logged;
+    }
+
+    /**
+     * @param file    the segment
+     * @param start   offset of the first communication record
+     * @param records number of communication records
+     * @param index   offset of the index of the records by key
+     * @return the number of the segment
+     */
+    int addSegment(SnapshotFile file, long start, int records, long index) {
+        segments.add(new Segment(file, start, records, index));
+        return segments.size() - 1;
+    }
+
+    /**
+     * @param key     key of the communication
+     * @param segment segment holding it
+     * @param offset  offset of its record
+     * @return the communication, decoded on first use
+     */
+    synchronized Communication get(long key, int segment, long offset) {
+        Communication communication = loaded.get(key);
+        if (communication == null) {
+            communication = decode(segments.get(segment).file.at(offset));
+            loaded.put(key, communication);
+        }
+        return communication;
+    }
+
+    /**
+     * @param key     key of the communication
+     * @param segment segment holding it
+     * @param offset  offset of its record
+     * @return the communication, decoded again unless it is already loaded
+     */
+    private synchronized Communication peek(long key, int segment, long offset) {
+        Communication communication = loaded.get(key);
+        return communication != null ? communication : decode(segments.get(segment).file.at(offset));
+    }
+
+    /**
+     * @param key     key of the communication
+     * @param segment segment holding it
+     * @return the communication, decoded on first use
+     */
+    synchronized Communication find(long key, int segment) {
+        Communication communication = loaded.get(key);
+        if (communication != null)
+            return communication;
+        Segment held = segments.get(segment);
+        ByteBuffer index = held.file.at(held.index);
+        int base = index.position() + 4;
+        int low = 0;
+        int high = index.getInt() / ENTRY_SIZE - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int at = base + ENTRY_SIZE * middle;
+            long found = index.getLong(at);
+            if (found < key)
+                low = middle + 1;
+            else if (found > key)
+                high = middle - 1;
+            else
+                return get(key, segment, index.getLong(at + 8));
+        }
+        throw new IllegalStateException("Communication " + key + " missing from its snapshot segment");
+    }
+
+    /**
+     * @param segment  segment holding the terminal
+     * @param offset   offset of the terminal's lists of communications
+     * @param made     number of communications made by the terminal
+     * @param received number of communications received by the terminal
+     * @return the terminal's communications, loaded on demand
+     */
+    LazyCommunications history(int segment, long offset, int made, int received) {
+        return new LazyCommunications() {
+            @Override
+            public int count() {
+                return made + received;
+            }
+
+            @Override
+            public void load(Terminal terminal) {
+                ByteBuffer buffer = segments.get(segment).file.at(offset);
+                long key = 0;
+                long record = 0;
+                for (int i = 0; i < made; i++) {
+                    key += SnapshotFile.getVarLong(buffer);
+                    record += SnapshotFile.getVarLong(buffer);
+                    terminal.restoreMadeCommunication(get(key, segment, record));
+                }
+                key = 0;
+                for (int i = 0; i < received; i++) {
+                    key += SnapshotFile.getVarLong(buffer);
+                    terminal.restoreReceivedCommunication(find(key, SnapshotFile.getVarInt(buffer)));
+                }
+            }
+        };
+    }
+
+    private Communication decode(ByteBuffer buffer) {
+        buffer.getInt();
+        long key = SnapshotFile.getVarLong(buffer);
+        byte kind = buffer.get();
+        Terminal sender = network.findTerminal(SnapshotFile.getVarInt(buffer));
+        Terminal receiver = network.findTerminal(SnapshotFile.getVarInt(buffer));
+        byte flags = buffer.get();
+        int units = buffer.getInt();
+        double price = buffer.getDouble();
+        String message = kind == Snapshot.TEXT ? SnapshotFile.getInlineString(buffer) : null;
+        return SnapshotReader.newCommunication(key, kind, sender, receiver, flags, units, price, message);
+    }
+
+    /** Walks the records of a segment that are in the network-wide log */
+    private final class Cursor {
+
+        private final int segment;
+        private long offset;
+        private int read = 0;
+
+        /** Key and offset of the record reached */
+        private long key;
+        private long record;
+
+        private Cursor(int segment) {
+            this.segment = segment;
+            offset = segments.get(segment).start;
+        }
+
+        /**
+         * @return false if there are no more records in the log
+         */
+        private boolean advance() {
+            Segment held = segments.get(segment);
+            while (read < held.records) {
+                offset = held.file.nextRecord(offset);
+                ByteBuffer buffer = held.file.at(offset);
+                record = offset;
+                offset += 4 + buffer.getInt();
+                read++;
+
+                key = SnapshotFile.getVarLong(buffer);
+                buffer.get();
+                SnapshotFile.getVarInt(buffer);
+                SnapshotFile.getVarInt(buffer);
+                if ((buffer.get() & Snapshot.MADE) != 0)
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Merges the records of every segment in key order.
+     */
+    @Override
+    public Iterator<Communication> iterator() {
+        return iterator(true);
+    }
+
+    /**
+     * @param keep whether the communications decoded are kept for later uses;
+     *             if not, a pass over them holds none but those already loaded
+     * @return the communications in the network-wide log, in key order
+     */
+    Iterator<Communication> iterator(boolean keep) {
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>(Comparator.comparingLong((Cursor cursor) -> cursor.key));
+        for (int i = 0; i < segments.size(); i++) {
+            Cursor cursor = new Cursor(i);
+            if (cursor.advance())
+                cursors.add(cursor);
+        }
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !cursors.isEmpty();
+            }
+
+            @Override
+            public Communication next() {
+                Cursor cursor = cursors.poll();
+                if (cursor == null)
+                    throw new NoSuchElementException();
+                Communication communication = keep ? get(cursor.key, cursor.segment, cursor.record)
+                        : peek(cursor.key, cursor.segment, cursor.record);
+                if (cursor.advance())
+                    cursors.add(cursor);
+                return communication;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return logged;
+    }
+}
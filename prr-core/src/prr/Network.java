@@ -2,17 +2,30 @@ package prr;
 
 import java.io.Serial;
 import java.io.Serializable;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractCollection;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
 
-import prr.util.NaturalLanguageTextComparator;
+import prr.util.AppendOnlyLongMap;
+import prr.util.CollatedKey;
+import prr.util.IntHashMap;
+import prr.util.KeyAllocator;
+import prr.util.StripedLocks;
+import prr.util.TerminalKey;
 import prr.visitors.Printer;
 import prr.visitors.Selector;
 import prr.clients.Client;
 import prr.communications.Communication;
+import prr.communications.InteractiveCommunication;
 import prr.communications.TextCommunication;
 import prr.communications.VideoCommunication;
 import prr.communications.VoiceCommunication;
@@ -21,11 +34,17 @@ import prr.terminals.BasicTerminal;
 import prr.terminals.Terminal;
 import prr.exceptions.UnrecognizedEntryException;
 import prr.exceptions.UnrecognizedTerminalTypeException;
+import prr.notifications.AsyncDelivery;
+import prr.notifications.DeliveryMethod;
 import prr.notifications.Notification;
+import prr.notifications.NotificationQueue;
+import prr.observers.Observer;
 import prr.exceptions.ClientDoesntExistException;
 import prr.exceptions.ClientExistsException;
 import prr.exceptions.IncorrectTerminalKeyException;
+import prr.exceptions.InvalidDestinationException;
 import prr.exceptions.InvalidEntryException;
+import prr.exceptions.InvalidOriginException;
 import prr.exceptions.NotificationsAlreadyDisabledException;
 import prr.exceptions.NotificationsAlreadyEnabledException;
 import prr.exceptions.TerminalDoesntExistException;
@@ -40,17 +59,66 @@ public class Network implements Serializable {
     @Serial
     private static final long serialVersionUID = 202208091753L;
 
-    /** Clients list, sorted by key */
-    private Map<String, Client> clients = new TreeMap<>(new NaturalLanguageTextComparator());
+    /** Tolerance used when comparing the global totals with a recomputation */
+    private static final double BALANCE_EPSILON = 1e-6;
 
-    /** Terminals list, sorted by key */
-    private Map<String, Terminal> terminals = new TreeMap<>(new NaturalLanguageTextComparator());
+    /** Files at least this large are imported by {@link StagedImport} on multicore hosts */
+    private static final long STAGED_IMPORT_THRESHOLD = 1 << 20;
 
-    /** Communications counter, used for generating communication keys */
-    private int communicationKey = 0;
+    /** Number of locks shared by the clients, in concurrent mode */
+    private static final int STRIPES = 64;
+
+    /** Number of communication keys each thread takes at a time, in concurrent mode */
+    private static final int KEY_BLOCK = 64;
+
+    /** Clients list, sorted by collated key, used for listings */
+    private Map<CollatedKey, Client> clients = new TreeMap<>();
+
+    /** Terminals, indexed by identity and listed in identity (that is, key) order */
+    private IntHashMap<Terminal> terminals = new IntHashMap<>();
+
+    /** Clients indexed by their exact key, used for lookups; read without locking */
+    private Map<String, Client> clientIndex = new ConcurrentHashMap<>();
+
+    /** Terminals indexed by identity, read without locking, in concurrent mode only */
+    private transient volatile Map<Integer, Terminal> terminalIndex;
+
+    /** Clients with debts, sorted by key; a client moves between these under its own lock */
+    private Map<CollatedKey, Client> clientsWithDebts = new ConcurrentSkipListMap<>();
+
+    /** Clients without debts, sorted by key */
+    private Map<CollatedKey, Client> clientsWithoutDebts = new ConcurrentSkipListMap<>();
+
+    /** Terminals with positive balance, by identity; guarded by itself */
+    private IntHashMap<Terminal> terminalsWithPositiveBalance = new IntHashMap<>();
+
+    /** Terminals without communications, by identity; guarded by itself */
+    private IntHashMap<Terminal> unusedTerminals = new IntHashMap<>();
+
+    /** Every communication made in the network, sorted by key; guarded by itself */
+    private AppendOnlyLongMap<Communication> communications = new AppendOnlyLongMap<>();
+
+    /** Communications made before those above, still in the snapshot the network was read from */
+    private transient MappedCommunications snapshotCommunications;
+
+    /** Source of communication keys */
+    private final KeyAllocator communicationKeys = new KeyAllocator();
+
+    /** Network-wide totals, kept up to date as communications are priced and paid */
+    private final DoubleAdder globalPayments = new DoubleAdder();
+    private final DoubleAdder globalDebts = new DoubleAdder();
 
     /** Something as changed since last save */
-    private boolean unsaved = false;
+    private volatile boolean unsaved = false;
+
+    /** Changes made since the last snapshot */
+    private transient volatile Journal journal;
+
+    /** Locks guarding the clients and their terminals, or null if not in concurrent mode */
+    private transient volatile StripedLocks locks;
+
+    /** Queue the notifications wait in for delivery, or null to deliver them as sent */
+    private transient NotificationQueue notificationQueue;
 
     /**
      * Register that something changed
@@ -81,14 +149,344 @@ public class Network implements Serializable {
     }
 
     /**
-     * Get and increment the communication key tracker
+     * @return the journal recording the changes made since the last snapshot
      */
-    public int getCommunicationKey() {
-        return ++communicationKey;
+    public Journal getJournal() {
+        Journal journal = this.journal;
+        if (journal == null) {
+            synchronized (this) {
+                if (this.journal == null)
+                    this.journal = new Journal(this);
+                journal = this.journal;
+            }
+        }
+        return journal;
     }
 
     /**
-     * Generate a new {@link TextCommunication}
+     * Turns the concurrent mode on or off, while no operation is running.
+     *
+     * In concurrent mode, each client, its terminals and the communications
+     * they made are guarded by the lock of one of a fixed number of stripes,
+     * so operations on terminals of different clients run in parallel. An
+     * operation on two terminals, or one that notifies other clients, takes
+     * every stripe involved in ascending order. Lookups read concurrent
+     * indexes without locking, and the network-wide totals are adders; a
+     * client moves between the balance indexes under its own stripe, while
+     * the communication log, the journal and the terminal indexes each have a
+     * lock of their own, held only for as long as each update takes. The
+     * network itself is only locked to register clients and terminals. The
+     * printers and the saves take every stripe, so they see the network as it
+     * stands between operations. Each thread takes communication keys from a
+     * block of its own, so keys follow the order they were taken in within a
+     * thread, but only roughly across threads.
+     *
+     * @param concurrent true to let operations run concurrently
+     */
+    public void setConcurrent(boolean concurrent) {
+        Map<Integer, Terminal> index = null;
+        if (concurrent) {
+            index = new ConcurrentHashMap<>();
+            for (Terminal terminal : terminals.sortedValues())
+                index.put(terminal.getId(), terminal);
+        }
+        terminalIndex = index;
+        locks = concurrent ? new StripedLocks(STRIPES) : null;
+        communicationKeys.setBlockSize(concurrent ? KEY_BLOCK : 1);
+    }
+
+    public boolean isConcurrent() {
+        return locks != null;
+    }
+
+    /**
+     * Sets how notifications reach the clients, while no operation is running.
+     *
+     * With a queue, the state changes of terminals only queue the
+     * notifications of the clients observing them, and a worker delivers them
+     * to each client's own delivery method in the background. The queue is
+     * flushed before notifications are read or saved. Notifications dropped
+     * on overflow are lost, but come back if the network is read back from
+     * its journal, which repeats the changes that sent them.
+     *
+     * @param capacity most notifications waiting at once, or 0 to deliver them
+     *                 as they are sent, on the thread changing the terminal
+     * @param policy   what a notification sent while the queue is full does
+     */
+    public void setNotificationQueue(int capacity, NotificationQueue.OverflowPolicy policy) {
+        if (notificationQueue == null && capacity <= 0)
+            return;
+        if (notificationQueue != null)
+            notificationQueue.close();
+        notificationQueue = capacity > 0 ? new NotificationQueue(capacity, policy) : null;
+        for (Client client : clients.values())
+            setDeliveryMethod(client);
+    }
+
+    /**
+     * @return the queue the notifications wait in, or null if they are
+     *         delivered as sent
+     */
+    public NotificationQueue getNotificationQueue() {
+        return notificationQueue;
+    }
+
+    /** Makes the delivery method of a client go through the queue, if any */
+    private void setDeliveryMethod(Client client) {
+        DeliveryMethod method = client.getDeliveryMethod();
+        if (method instanceof AsyncDelivery)
+            method = ((AsyncDelivery) method).getTarget();
+        client.setDeliveryMethod(notificationQueue == null ? method : new AsyncDelivery(method, notificationQueue));
+    }
+
+    /**
+     * Delivers the notifications waiting in the queue, if any
+     */
+    public void flushNotifications() {
+        NotificationQueue queue = notificationQueue;
+        if (queue != null)
+            queue.flush();
+    }
+
+    /**
+     * Locks what an operation on some terminals changes: their owners, the
+     * clients observing them, which their state changes notify, and the other
+     * end of their ongoing communications, with its observers too.
+     *
+     * @param terminals the terminals
+     * @return the locks held, to be unlocked once the operation is done
+     */
+    public StripedLocks.Held lockTerminals(Terminal... terminals) {
+        StripedLocks locks = this.locks;
+        if (locks == null)
+            return StripedLocks.NONE;
+        BitSet wanted = new BitSet(STRIPES);
+        for (Terminal terminal : terminals)
+            wanted.set(locks.stripeOf(terminal.getOwner().getSortKey()));
+        while (true) {
+            StripedLocks.Held held = locks.lock(wanted);
+            BitSet needed = (BitSet) wanted.clone();
+            for (Terminal terminal : terminals)
+                addReached(locks, needed, wanted, terminal);
+            if (needed.equals(wanted))
+                return held;
+            // Some stripe may come before those held; start over with all of them
+            held.unlock();
+            wanted = needed;
+        }
+    }
+
+    /**
+     * Adds the stripes of the clients a change of a terminal may reach, reading
+     * only what the stripes held guard
+     */
+    private static void addReached(StripedLocks locks, BitSet stripes, BitSet held, Terminal terminal) {
+        addObservers(locks, stripes, terminal);
+        InteractiveCommunication current = terminal.getCurrentCommunication();
+        if (current == null)
+            return;
+        for (Terminal end : new Terminal[] { current.getSender(), current.getReceiver() }) {
+            int stripe = locks.stripeOf(end.getOwner().getSortKey());
+            stripes.set(stripe);
+            if (held.get(stripe))
+                addObservers(locks, stripes, end);
+        }
+    }
+
+    private static void addObservers(StripedLocks locks, BitSet stripes, Terminal terminal) {
+        for (Observer observer : terminal.getTextCommunicationObservers())
+            if (observer instanceof Client)
+                stripes.set(locks.stripeOf(((Client) observer).getSortKey()));
+        for (Observer observer : terminal.getInteractiveCommunicationObservers())
+            if (observer instanceof Client)
+                stripes.set(locks.stripeOf(((Client) observer).getSortKey()));
+    }
+
+    /**
+     * @param sortKey the collated key of a client, registered or not
+     * @return the lock of the client, held until unlocked
+     */
+    StripedLocks.Held lockClient(CollatedKey sortKey) {
+        StripedLocks locks = this.locks;
+        if (locks == null)
+            return StripedLocks.NONE;
+        BitSet stripe = new BitSet(STRIPES);
+        stripe.set(locks.stripeOf(sortKey));
+        return locks.lock(stripe);
+    }
+
+    /**
+     * Locks every client and terminal, so the network stands still until
+     * unlocked, but for lookups.
+     *
+     * @return the locks held
+     */
+    public StripedLocks.Held lockAll() {
+        StripedLocks locks = this.locks;
+        return locks == null ? StripedLocks.NONE : locks.lockAll();
+    }
+
+    /**
+     * Take a new communication key. Keys are consecutive unless in concurrent
+     * mode, where each thread takes them from a block of its own.
+     */
+    public long getCommunicationKey() {
+        return communicationKeys.next();
+    }
+
+    /**
+     * Make a key the next one the calling thread takes, when replaying the
+     * journal
+     *
+     * @param key the key the communication took when recorded
+     */
+    void claimCommunicationKey(long key) {
+        communicationKeys.claim(key);
+    }
+
+    /**
+     * Add a communication to the network-wide log, once it is registered by its
+     * sender
+     * 
+     * @param communication the communication made
+     */
+    public void registerCommunication(Communication communication) {
+        // Concurrent communications may be registered in another order than
+        // their keys
+        synchronized (communications) {
+            communications.insert(communication.getKey(), communication);
+        }
+    }
+
+    /**
+     * @return the last communication key taken, or reserved by a thread in
+     *         concurrent mode
+     */
+    long getLastCommunicationKey() {
+        return communicationKeys.last();
+    }
+
+    /**
+     * @return every client, in key order
+     */
+    Collection<Client> getClients() {
+        return clients.values();
+    }
+
+    /**
+     * @return every terminal, in key order
+     */
+    Collection<Terminal> getTerminals() {
+        return terminals.sortedValues();
+    }
+
+    /**
+     * @return every communication, in key order
+     */
+    Collection<Communication> getCommunications() {
+        if (snapshotCommunications == null)
+            return communications.values();
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Communication> iterator() {
+                return communicationIterator(true);
+            }
+
+            @Override
+            public int size() {
+                return snapshotCommunications.size() + communications.size();
+            }
+        };
+    }
+
+    /**
+     * @param keep whether the communications still in the snapshot are kept
+     *             once decoded
+     * @return an iterator over every communication, in key order
+     */
+    private Iterator<Communication> communicationIterator(boolean keep) {
+        if (snapshotCommunications == null)
+            return communications.values().iterator();
+        return new Iterator<>() {
+            private Iterator<Communication> current = snapshotCommunications.iterator(keep);
+            private boolean inSnapshot = true;
+
+            @Override
+            public boolean hasNext() {
+                if (inSnapshot && !current.hasNext()) {
+                    current = communications.values().iterator();
+                    inSnapshot = false;
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Communication next() {
+                hasNext();
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * Leaves the communications of a network read back from a snapshot in it,
+     * to be loaded on demand
+     * 
+     * @param communications the communications in the snapshot
+     */
+    void restoreCommunications(MappedCommunications communications) {
+        snapshotCommunications = communications;
+    }
+
+    /**
+     * Adds a client read back from a snapshot, with its totals already restored
+     * 
+     * @param client the client
+     */
+    void restoreClient(Client client) {
+        clients.put(client.getSortKey(), client);
+        clientIndex.put(client.getKey(), client);
+        if (client.getDebt() > 0)
+            clientsWithDebts.put(client.getSortKey(), client);
+        else
+            clientsWithoutDebts.put(client.getSortKey(), client);
+    }
+
+    /**
+     * Adds a terminal read back from a snapshot, with its communications and
+     * totals already restored
+     * 
+     * @param terminal the terminal
+     */
+    void restoreTerminal(Terminal terminal) {
+        terminals.put(terminal.getId(), terminal);
+        Map<Integer, Terminal> index = terminalIndex;
+        if (index != null)
+            index.put(terminal.getId(), terminal);
+        if (terminal.getCommunicationCount() == 0)
+            unusedTerminals.put(terminal.getId(), terminal);
+        if (terminal.getBalance() > 0)
+            terminalsWithPositiveBalance.put(terminal.getId(), terminal);
+    }
+
+    /**
+     * Restores the counters read back from a snapshot
+     * 
+     * @param communicationKey key of the last communication created
+     * @param globalPayments   network-wide paid total
+     * @param globalDebts      network-wide debt total
+     */
+    void restoreCounters(long communicationKey, double globalPayments, double globalDebts) {
+        communicationKeys.reset(communicationKey);
+        this.globalPayments.reset();
+        this.globalPayments.add(globalPayments);
+        this.globalDebts.reset();
+        this.globalDebts.add(globalDebts);
+    }
+
+    /**
+     * Generate a new {@link TextCommunication}, recording the attempt in the
+     * journal with the key it takes
      * 
      * @param sender   new message's sender
      * @param receiver new message's receiver
@@ -96,27 +494,37 @@ public class Network implements Serializable {
      */
     public TextCommunication newTextCommunication(Terminal sender, Terminal receiver, String message,
             boolean isFriend) {
-        return new TextCommunication(getCommunicationKey(), sender, receiver, message, isFriend);
+        long key = getCommunicationKey();
+        getJournal().textSent(key, sender, receiver, message);
+        return new TextCommunication(key, sender, receiver, message, isFriend);
     }
 
     /**
-     * Generate a new {@link VoiceCommunication}
+     * Generate a new {@link VoiceCommunication}, recording the attempt in the
+     * journal with the key it takes
      * 
      * @param sender   new message's sender
      * @param receiver new message's receiver
      */
     public VoiceCommunication newVoiceCommunication(Terminal sender, Terminal receiver) {
-        return new VoiceCommunication(getCommunicationKey(), sender, receiver);
+        return new VoiceCommunication(takeInteractiveKey(sender, receiver, "VOICE"), sender, receiver);
     }
 
     /**
-     * Generate a new {@link VideoCommunication}
+     * Generate a new {@link VideoCommunication}, recording the attempt in the
+     * journal with the key it takes
      * 
      * @param sender   new message's sender
      * @param receiver new message's receiver
      */
     public VideoCommunication newVideoCommunication(Terminal sender, Terminal receiver) {
-        return new VideoCommunication(getCommunicationKey(), sender, receiver);
+        return new VideoCommunication(takeInteractiveKey(sender, receiver, "VIDEO"), sender, receiver);
+    }
+
+    private long takeInteractiveKey(Terminal sender, Terminal receiver, String type) {
+        long key = getCommunicationKey();
+        getJournal().interactiveStarted(key, sender, receiver, type);
+        return key;
     }
 
     /**
@@ -128,10 +536,87 @@ public class Network implements Serializable {
      * @throws ClientExistsException if the given key is already in use
      */
     public void registerClient(String key, String name, int nif) throws ClientExistsException {
-        if (clients.containsKey(key))
-            throw new ClientExistsException(key);
-        clients.put(key, new Client(name, key, nif));
-        changed();
+        registerClient(new CollatedKey(key), name, nif);
+    }
+
+    /**
+     * Register a new client in the network, with its collated key already built
+     * 
+     * @param sortKey new client's key
+     * @param name    new client's name
+     * @param nif     new client's tax id
+     * @throws ClientExistsException if the given key is already in use
+     */
+    void registerClient(CollatedKey sortKey, String name, int nif) throws ClientExistsException {
+        StripedLocks.Held held = lockClient(sortKey);
+        try {
+            synchronized (this) {
+                String key = sortKey.getKey();
+                if (clientIndex.containsKey(key))
+                    throw new ClientExistsException(key);
+                // The sorted view also rejects keys that only differ in case or
+                // accentuation
+                Client client = new Client(name, sortKey, nif, this);
+                if (clients.putIfAbsent(sortKey, client) != null)
+                    throw new ClientExistsException(key);
+                clientIndex.put(key, client);
+                clientsWithoutDebts.put(client.getSortKey(), client);
+                setDeliveryMethod(client);
+                getJournal().clientRegistered(client);
+                changed();
+            }
+        } finally {
+            held.unlock();
+        }
+    }
+
+    /**
+     * Resolves a client key. Exact keys are found through the hash index; keys
+     * that only match under the natural language ordering (different case or
+     * accentuation) fall back to the sorted view.
+     * 
+     * @param key the key that identifies the client
+     * @return The matching {@link Client}, or null if there is none
+     */
+    Client findClient(String key) {
+        Client client = clientIndex.get(key);
+        if (client != null)
+            return client;
+        synchronized (this) {
+            return clients.get(new CollatedKey(key));
+        }
+    }
+
+    /**
+     * Resolves a terminal key through its identity
+     * 
+     * @param key the key that identifies the terminal
+     * @return The matching {@link Terminal}, or null if there is none
+     */
+    private Terminal findTerminal(String key) {
+        return findTerminal(TerminalKey.parse(key));
+    }
+
+    /**
+     * @param id the identity of the terminal
+     * @return The matching {@link Terminal}, or null if there is none
+     */
+    Terminal findTerminal(int id) {
+        Map<Integer, Terminal> index = terminalIndex;
+        if (index != null)
+            return index.get(id);
+        synchronized (this) {
+            return terminals.get(id);
+        }
+    }
+
+    /**
+     * @param sortKey the collated key of a client
+     * @return true if a client matches the key under the natural language
+     *         ordering
+     */
+    synchronized boolean containsClient(CollatedKey sortKey) {
+        return clients.containsKey(sortKey);
     }
 
     /**
@@ -141,8 +626,7 @@ public class Network implements Serializable {
      * @throws ClientDoesntExistException if the given key can't be found
      */
     public void checkClient(String key) throws ClientDoesntExistException {
-        if (!clients.containsKey(key))
-            throw new ClientDoesntExistException(key);
+        getClient(key);
     }
 
     /**
@@ -152,8 +636,7 @@ public class Network implements Serializable {
      * @throws TerminalDoesntExistException if the given key can't be found
      */
     public void checkTerminal(String key) throws TerminalDoesntExistException {
-        if (!terminals.containsKey(key))
-            throw new TerminalDoesntExistException(key);
+        getTerminal(key);
     }
 
     /**
@@ -164,8 +647,10 @@ public class Network implements Serializable {
      * @throws ClientDoesntExistException if the given key can't be found
      */
     public Client getClient(String key) throws ClientDoesntExistException {
-        checkClient(key);
-        return clients.get(key);
+        Client client = findClient(key);
+        if (client == null)
+            throw new ClientDoesntExistException(key);
+        return client;
     }
 
     /**
@@ -179,9 +664,15 @@ public class Network implements Serializable {
     public void enableNotifications(String key)
             throws ClientDoesntExistException, NotificationsAlreadyEnabledException {
         Client client = getClient(key);
-        if (client.getActiveNotifications())
-            throw new NotificationsAlreadyEnabledException();
-        client.enableNotifications();
+        StripedLocks.Held held = lockClient(client.getSortKey());
+        try {
+            if (client.getActiveNotifications())
+                throw new NotificationsAlreadyEnabledException();
+            client.enableNotifications();
+            getJournal().notificationsEnabled(client);
+        } finally {
+            held.unlock();
+        }
     }
 
     /**
@@ -195,9 +686,15 @@ public class Network implements Serializable {
     public void disableNotifications(String key)
             throws ClientDoesntExistException, NotificationsAlreadyDisabledException {
         Client client = getClient(key);
-        if (!client.getActiveNotifications())
-            throw new NotificationsAlreadyDisabledException();
-        client.disableNotifications();
+        StripedLocks.Held held = lockClient(client.getSortKey());
+        try {
+            if (!client.getActiveNotifications())
+                throw new NotificationsAlreadyDisabledException();
+            client.disableNotifications();
+            getJournal().notificationsDisabled(client);
+        } finally {
+            held.unlock();
+        }
     }
 
     /**
@@ -225,11 +722,8 @@ public class Network implements Serializable {
      * 
      * @return Total paid by all clients
      */
-    public long getGlobalPayments() {
-        long total = 0;
-        for (Client c : clients.values())
-            total += c.getPaid();
-        return total;
+    public double getGlobalPayments() {
+        return globalPayments.sum();
     }
 
     /**
@@ -237,11 +731,72 @@ public class Network implements Serializable {
      * 
      * @return Total debt of all clients
      */
-    public long getGlobalDebts() {
-        long total = 0;
-        for (Client c : clients.values())
-            total += c.getDebt();
-        return total;
+    public double getGlobalDebts() {
+        return globalDebts.sum();
+    }
+
+    /**
+     * Applies a change reported by a client to the network-wide totals and
+     * updates the balance indexes of the client and terminal involved
+     * 
+     * @param client   the client whose totals changed
+     * @param terminal the terminal whose totals changed
+     * @param paid     amount to add to the global payments
+     * @param debt     amount to add to the global debts
+     */
+    public void updateBalance(Client client, Terminal terminal, double paid, double debt) {
+        globalPayments.add(paid);
+        globalDebts.add(debt);
+
+        if (client.getDebt() > 0) {
+            clientsWithoutDebts.remove(client.getSortKey());
+            clientsWithDebts.put(client.getSortKey(), client);
+        } else {
+            clientsWithDebts.remove(client.getSortKey());
+            clientsWithoutDebts.put(client.getSortKey(), client);
+        }
+
+        synchronized (terminalsWithPositiveBalance) {
+            if (terminal.getBalance() > 0)
+                terminalsWithPositiveBalance.put(terminal.getId(), terminal);
+            else
+                terminalsWithPositiveBalance.remove(terminal.getId());
+        }
+    }
+
+    /**
+     * Register that a terminal got its first communication
+     * 
+     * @param terminal the terminal that is no longer unused
+     */
+    public void terminalUsed(Terminal terminal) {
+        synchronized (unusedTerminals) {
+            unusedTerminals.remove(terminal.getId());
+        }
+    }
+
+    /**
+     * Checks the network-wide totals against the clients' aggregates, and each
+     * client against its terminals
+     * 
+     * @return true if every total matches its recomputed value
+     */
+    public boolean isBalanceConsistent() {
+        StripedLocks.Held held = lockAll();
+        try {
+            double payments = 0;
+            double debts = 0;
+            for (Client c : clients.values()) {
+                if (!c.isBalanceConsistent())
+                    return false;
+                payments += c.getPaid();
+                debts += c.getDebt();
+            }
+            return Math.abs(globalPayments.sum() - payments) <= BALANCE_EPSILON
+                    && Math.abs(globalDebts.sum() - debts) <= BALANCE_EPSILON;
+        } finally {
+            held.unlock();
+        }
     }
 
     /**
@@ -252,8 +807,10 @@ public class Network implements Serializable {
      * @throws TerminalDoesntExistException if the given key can't be found
      */
     public Terminal getTerminal(String key) throws TerminalDoesntExistException {
-        checkTerminal(key);
-        return terminals.get(key);
+        Terminal terminal = findTerminal(key);
+        if (terminal == null)
+            throw new TerminalDoesntExistException(key);
+        return terminal;
     }
 
     /**
@@ -271,54 +828,83 @@ public class Network implements Serializable {
             throws TerminalExistsException, IncorrectTerminalKeyException, ClientDoesntExistException,
             UnrecognizedTerminalTypeException {
 
-        if (terminals.containsKey(key))
+        int id = TerminalKey.parse(key);
+
+        if (findTerminal(id) != null)
             throw new TerminalExistsException(key);
 
-        if (!key.matches("[0-9]{6}"))
+        if (id < 0)
             throw new IncorrectTerminalKeyException(key);
 
         Client owner = getClient(client);
         Terminal newTerminal;
 
         if (type.equals("FANCY"))
-            newTerminal = new FancyTerminal(key, clients.get(client));
+            newTerminal = new FancyTerminal(id, owner);
         else if (type.equals("BASIC"))
-            newTerminal = new BasicTerminal(key, clients.get(client));
+            newTerminal = new BasicTerminal(id, owner);
         else
             throw new UnrecognizedTerminalTypeException(type);
 
-        owner.addTerminal(newTerminal);
-        terminals.put(key, newTerminal);
+        StripedLocks.Held held = lockClient(owner.getSortKey());
+        try {
+            synchronized (this) {
+                // Another terminal may have taken the key since it was checked
+                if (terminals.containsKey(id))
+                    throw new TerminalExistsException(key);
+                owner.addTerminal(newTerminal);
+                terminals.put(id, newTerminal);
+                Map<Integer, Terminal> index = terminalIndex;
+                if (index != null)
+                    index.put(id, newTerminal);
+                synchronized (unusedTerminals) {
+                    unusedTerminals.put(id, newTerminal);
+                }
 
-        changed();
+                getJournal().terminalRegistered(newTerminal, type);
+                changed();
+            }
+        } finally {
+            held.unlock();
+        }
 
         return newTerminal;
     }
 
     /**
-     * Visit the communications received by all selected client with a printer
+     * Visit the communications received by all selected client with a printer, in
+     * key order
      * 
      * @param selector
      * @param visitor
      */
     public void acceptReceivedCommunicationsPrinter(Selector<Client> selector, Printer visitor) {
-        for (Client client : clients.values())
-            if (selector.ok(client))
-                for (Communication communication : client.getReceivedCommunications())
+        StripedLocks.Held held = lockAll();
+        try {
+            for (Communication communication : getCommunications())
+                if (selector.ok(communication.getReceiver().getOwner()))
                     communication.accept(visitor);
+        } finally {
+            held.unlock();
+        }
     }
 
     /**
-     * Visit the communications made by all selected client with a printer
+     * Visit the communications made by all selected client with a printer, in
+     * key order
      * 
      * @param selector
      * @param visitor
      */
     public void acceptMadeCommunicationsPrinter(Selector<Client> selector, Printer visitor) {
-        for (Client client : clients.values())
-            if (selector.ok(client))
-                for (Communication communication : client.getMadeCommunications())
+        StripedLocks.Held held = lockAll();
+        try {
+            for (Communication communication : getCommunications())
+                if (selector.ok(communication.getSender().getOwner()))
                     communication.accept(visitor);
+        } finally {
+            held.unlock();
+        }
     }
 
     /**
@@ -328,9 +914,14 @@ public class Network implements Serializable {
      * @param visitor
      */
     public void acceptSimpleClientPrinter(Selector<Client> selector, Printer visitor) {
-        for (Client c : clients.values())
-            if (selector.ok(c))
-                c.accept(visitor);
+        StripedLocks.Held held = lockAll();
+        try {
+            for (Client c : clients.values())
+                if (selector.ok(c))
+                    c.accept(visitor);
+        } finally {
+            held.unlock();
+        }
     }
 
     /**
@@ -340,13 +931,21 @@ public class Network implements Serializable {
      * @param visitor
      */
     public void acceptVerboseClientPrinter(Selector<Client> selector, Printer visitor) {
-        for (Client c : clients.values())
-            if (selector.ok(c)) {
-                c.accept(visitor);
-                Notification n;
-                while ((n = c.getNotifications().poll()) != null)
-                    n.accept(visitor);
-            }
+        StripedLocks.Held held = lockAll();
+        try {
+            flushNotifications();
+            for (Client c : clients.values())
+                if (selector.ok(c)) {
+                    c.accept(visitor);
+                    if (!c.getNotifications().isEmpty())
+                        getJournal().notificationsCleared(c);
+                    Notification n;
+                    while ((n = c.getNotifications().poll()) != null)
+                        n.accept(visitor);
+                }
+        } finally {
+            held.unlock();
+        }
     }
 
     /**
@@ -356,9 +955,97 @@ public class Network implements Serializable {
      * @param visitor
      */
     public void acceptTerminalPrinter(Selector<Terminal> selector, Printer visitor) {
-        for (Terminal t : terminals.values())
-            if (selector.ok(t))
+        StripedLocks.Held held = lockAll();
+        try {
+            for (Terminal t : terminals.sortedValues())
+                if (selector.ok(t))
+                    t.accept(visitor);
+        } finally {
+            held.unlock();
+        }
+    }
+
+    /**
+     * Visit the clients with debts with a printer
+     * 
+     * @param visitor
+     */
+    public void acceptClientsWithDebtsPrinter(Printer visitor) {
+        StripedLocks.Held held = lockAll();
+        try {
+            for (Client c : clientsWithDebts.values())
+                c.accept(visitor);
+        } finally {
+            held.unlock();
+        }
+    }
+
+    /**
+     * Visit the clients without debts with a printer
+     * 
+     * @param visitor
+     */
+    public void acceptClientsWithoutDebtsPrinter(Printer visitor) {
+        StripedLocks.Held held = lockAll();
+        try {
+            for (Client c : clientsWithoutDebts.values())
+                c.accept(visitor);
+        } finally {
+            held.unlock();
+        }
+    }
+
+    /**
+     * Visit the terminals with positive balance with a printer
+     * 
+     * @param visitor
+     */
+    public void acceptTerminalsWithPositiveBalancePrinter(Printer visitor) {
+        StripedLocks.Held held = lockAll();
+        try {
+            for (Terminal t : terminalsWithPositiveBalance.sortedValues())
+                t.accept(visitor);
+        } finally {
+            held.unlock();
+        }
+    }
+
+    /**
+     * Visit the terminals without communications with a printer
+     * 
+     * @param visitor
+     */
+    public void acceptUnusedTerminalsPrinter(Printer visitor) {
+        StripedLocks.Held held = lockAll();
+        try {
+            for (Terminal t : unusedTerminals.sortedValues())
                 t.accept(visitor);
+        } finally {
+            held.unlock();
+        }
+    }
+
+    /**
+     * Visit selected communications with an exporter, in key order. The
+     * communications still in the snapshot the network was read from are
+     * decoded one at a time and not kept, so the whole history can be exported
+     * without loading it.
+     * 
+     * @param selector
+     * @param visitor
+     */
+    public void exportCommunications(Selector<Communication> selector, Printer visitor) {
+        StripedLocks.Held held = lockAll();
+        try {
+            Iterator<Communication> iterator = communicationIterator(false);
+            while (iterator.hasNext()) {
+                Communication communication = iterator.next();
+                if (selector.ok(communication))
+                    communication.accept(visitor);
+            }
+        } finally {
+            held.unlock();
+        }
     }
 
     /**
@@ -369,13 +1056,13 @@ public class Network implements Serializable {
      * @throws InvalidEntryException      if some entry doesn't respect the rules
      *                                    (repeated keys, invalid keys, etc.)
      */
-    private void importClient(String[] fields) throws UnrecognizedEntryException, InvalidEntryException {
+    void importClient(String[] fields) throws UnrecognizedEntryException, InvalidEntryException {
         if (fields.length != 4)
-            throw new UnrecognizedEntryException(String.join("|", fields));
+            throw new UnrecognizedEntryException(ImportParser.join(fields));
         try {
             registerClient(fields[1], fields[2], Integer.parseInt(fields[3]));
         } catch (ClientExistsException | NumberFormatException e) {
-            throw new InvalidEntryException(String.join("|", fields), e);
+            throw new InvalidEntryException(ImportParser.join(fields), e);
         }
     }
 
@@ -387,14 +1074,12 @@ public class Network implements Serializable {
      * @throws InvalidEntryException      if some entry doesn't respect the rules
      *                                    (repeated keys, invalid keys, etc.)
      */
-    private void importTerminal(String[] fields) throws UnrecognizedEntryException, InvalidEntryException {
-        if (fields.length != 4 | !fields[3].matches("^(ON|OFF|SILENCE)"))
-            throw new UnrecognizedEntryException(String.join("|", fields));
+    void importTerminal(String[] fields) throws UnrecognizedEntryException, InvalidEntryException {
+        if (fields.length != 4 || !isTerminalStateLabel(fields[3]))
+            throw new UnrecognizedEntryException(ImportParser.join(fields));
         try {
             Terminal terminal = registerTerminal(fields[1], fields[0], fields[2]);
             switch (fields[3]) {
-                case "ON":
-                    break;
                 case "OFF":
                     terminal.setState(terminal.getOffState());
                     break;
@@ -402,11 +1087,26 @@ public class Network implements Serializable {
                     terminal.setState(terminal.getSilenceState());
                     break;
                 default:
-                    throw new InvalidEntryException(String.join("|", fields));
+                    break;
             }
         } catch (TerminalExistsException | IncorrectTerminalKeyException | ClientDoesntExistException
                 | UnrecognizedTerminalTypeException e) {
-            throw new InvalidEntryException(String.join("|", fields), e);
+            throw new InvalidEntryException(ImportParser.join(fields), e);
+        }
+    }
+
+    /**
+     * @param label the state field of a terminal line
+     * @return true if the label is a valid initial terminal state
+     */
+    static boolean isTerminalStateLabel(String label) {
+        switch (label) {
+            case "ON":
+            case "OFF":
+            case "SILENCE":
+                return true;
+            default:
+                return false;
         }
     }
 
@@ -418,22 +1118,98 @@ public class Network implements Serializable {
      * @throws InvalidEntryException      if some entry doesn't respect the rules
      *                                    (repeated keys, invalid keys, etc.)
      */
-    private void importFriends(String[] fields) throws UnrecognizedEntryException, InvalidEntryException {
+    void importFriends(String[] fields) throws UnrecognizedEntryException, InvalidEntryException {
         if (fields.length != 3)
-            throw new UnrecognizedEntryException(String.join("|", fields));
+            throw new UnrecognizedEntryException(ImportParser.join(fields));
 
         try {
             Terminal terminal = getTerminal(fields[1]);
-            String[] friends = fields[2].split(",");
-            for (String friend : friends) {
-                checkTerminal(friend);
-                terminal.addFriend(friend);
-            }
+            String[] friends = ImportParser.split(fields[2], ImportParser.LIST_SEPARATOR);
+            for (String friend : friends)
+                terminal.addFriend(getTerminal(friend));
 
             changed();
         } catch (TerminalDoesntExistException e) {
-            throw new InvalidEntryException(String.join("|", fields), e);
+            throw new InvalidEntryException(ImportParser.join(fields), e);
+        }
+    }
+
+    /**
+     * Loads a communication from the history of the network onto it, from an
+     * array of fields: its kind, sender, receiver, message or units, whether it
+     * was paid and whether the terminals were friends when it was made
+     * 
+     * @param fields the line fields
+     * @param batch  the import it belongs to
+     * @throws UnrecognizedEntryException if some entry is not correct
+     * @throws InvalidEntryException      if some entry doesn't respect the rules
+     *                                    (unknown terminals, invalid units, etc.)
+     */
+    void importCommunication(String[] fields, ImportBatch batch)
+            throws UnrecognizedEntryException, InvalidEntryException {
+        if (fields.length != 6 || !isPaymentLabel(fields[4]) || !isFriendshipLabel(fields[5]))
+            throw new UnrecognizedEntryException(ImportParser.join(fields));
+
+        Communication communication;
+        try {
+            Terminal sender = getTerminal(fields[1]);
+            Terminal receiver = getTerminal(fields[2]);
+            boolean friend = fields[5].equals("FRIEND");
+            if (fields[0].equals("TEXT")) {
+                communication = new TextCommunication(getCommunicationKey(), sender, receiver, fields[3], friend);
+                sender.getOwner().increaseTextCount();
+            } else {
+                int units = Integer.parseInt(fields[3]);
+                if (units < 0)
+                    throw new InvalidEntryException(ImportParser.join(fields));
+                if (sender == receiver)
+                    throw new InvalidEntryException(ImportParser.join(fields),
+                            new InvalidDestinationException(fields[2], fields[0]));
+
+                InteractiveCommunication interactive;
+                if (fields[0].equals("VOICE")) {
+                    interactive = new VoiceCommunication(getCommunicationKey(), sender, receiver);
+                    sender.getOwner().resetCount();
+                } else {
+                    if (!(sender instanceof FancyTerminal))
+                        throw new InvalidEntryException(ImportParser.join(fields),
+                                new InvalidOriginException(fields[1], fields[0]));
+                    if (!(receiver instanceof FancyTerminal))
+                        throw new InvalidEntryException(ImportParser.join(fields),
+                                new InvalidDestinationException(fields[2], fields[0]));
+                    interactive = new VideoCommunication(getCommunicationKey(), sender, receiver);
+                    sender.getOwner().increaseVideoCount();
+                }
+                interactive.setUnits(units);
+                interactive.updatePrice(friend);
+                interactive.finish();
+                communication = interactive;
+            }
+            if (fields[4].equals("PAID"))
+                communication.payCommunication();
+            receiver.registerReceivedCommunication(communication);
+            sender.addMadeCommunication(communication);
+        } catch (TerminalDoesntExistException | NumberFormatException e) {
+            throw new InvalidEntryException(ImportParser.join(fields), e);
         }
+        batch.charge(communication);
+        changed();
+    }
+
+    /**
+     * @param label the payment field of a communication line
+     * @return true if the label says whether the communication was paid
+     */
+    static boolean isPaymentLabel(String label) {
+        return label.equals("PAID") || label.equals("UNPAID");
+    }
+
+    /**
+     * @param label the friendship field of a communication line
+     * @return true if the label says whether the terminals were friends
+     */
+    static boolean isFriendshipLabel(String label) {
+        return label.equals("FRIEND") || label.equals("NOT_FRIEND");
     }
 
     /**
@@ -441,34 +1217,73 @@ public class Network implements Serializable {
      * imported
      * 
      * @param fields the line fields
+     * @param batch  the import it belongs to
      * @throws UnrecognizedEntryException if the first field isn't recognized
      */
-    private void importObject(String[] fields) throws UnrecognizedEntryException, InvalidEntryException {
-        if (fields[0].matches("^(CLIENT)"))
-            importClient(fields);
-        else if (fields[0].matches("^(BASIC|FANCY)"))
-            importTerminal(fields);
-        else if (fields[0].matches("^(FRIENDS)"))
-            importFriends(fields);
-        else
-            throw new UnrecognizedEntryException(String.join("|", fields));
+    void importObject(String[] fields, ImportBatch batch) throws UnrecognizedEntryException, InvalidEntryException {
+        if (fields.length == 0)
+            throw new UnrecognizedEntryException(ImportParser.join(fields));
+        switch (fields[0]) {
+            case "CLIENT":
+                importClient(fields);
+                break;
+            case "BASIC":
+            case "FANCY":
+                importTerminal(fields);
+                break;
+            case "FRIENDS":
+                importFriends(fields);
+                break;
+            case "TEXT":
+            case "VOICE":
+            case "VIDEO":
+                importCommunication(fields, batch);
+                break;
+            default:
+                throw new UnrecognizedEntryException(ImportParser.join(fields));
+        }
     }
 
     /**
-     * Read text input file and create corresponding domain entities.
+     * Read text input file and create corresponding domain entities. The
+     * balances and client types the communications in the file affect are
+     * updated once, at the end, see {@link ImportBatch}.
      * 
      * @param filename name of the text input file
      * @throws UnrecognizedEntryException if some entry is not correct
      * @throws InvalidEntryException      if some entry doesn't respect the rules
      *                                    (repeated keys, invalid keys, etc.)
+     * @return the number of lines imported and the time taken
      * @throws IOException                if there is an IO error while processing
      *                                    the text file
      */
-    void importFile(String filename) throws UnrecognizedEntryException, InvalidEntryException, IOException {
-        String line;
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            while ((line = reader.readLine()) != null)
-                importObject(line.split("\\|"));
+    ImportStatistics importFile(String filename)
+            throws UnrecognizedEntryException, InvalidEntryException, IOException {
+        StripedLocks.Held held = lockAll();
+        try {
+            // An import is folded into the next snapshot rather than journaled
+            getJournal().requireSnapshot();
+
+            ImportBatch batch = new ImportBatch();
+            try {
+                // Staging only pays off when the parsing can be spread over several cores
+                if (Runtime.getRuntime().availableProcessors() > 1
+                        && Files.size(Path.of(filename)) >= STAGED_IMPORT_THRESHOLD)
+                    return new StagedImport(this, batch).importFile(filename);
+
+                long start = System.nanoTime();
+                String[] fields;
+                try (ImportParser parser = new ImportParser(filename)) {
+                    while ((fields = parser.next()) != null)
+                        importObject(fields, batch);
+                    return new ImportStatistics(parser.getLineCount(), System.nanoTime() - start);
+                }
+            } finally {
+                // what was imported before a failure stays, as with the other entries
+                batch.finish();
+            }
+        } finally {
+            held.unlock();
         }
     }
 }
\ No newline at end of file
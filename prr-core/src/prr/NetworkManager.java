@@ -6,6 +6,13 @@ import prr.exceptions.MissingFileAssociationException;
 import prr.exceptions.UnavailableFileException;
 import prr.exceptions.UnrecognizedEntryException;
 import java.io.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Deflater;
+
+import prr.notifications.NotificationQueue;
+import prr.util.StripedLocks;
 
 /**
  * Manage access to network and implement load/save operations.
@@ -16,21 +23,54 @@ public class NetworkManager {
     private Network _network = new Network();
     private String _currentFile = "";
 
+    /** Figures about the last successful import, if any. */
+    private ImportStatistics _lastImport;
+
+    /** Level of the compression of new snapshots, from {@link Deflater}. */
+    private int _compressionLevel = Deflater.NO_COMPRESSION;
+
+    /** The snapshot being written in the background, if any. */
+    private FutureTask<Void> _pendingSave;
+
+    /** Whether the networks managed let operations run concurrently. */
+    private boolean _concurrent = false;
+
+    /** How the networks managed queue notifications; see {@link #setNotificationQueue}. */
+    private int _notificationCapacity = 0;
+    private NotificationQueue.OverflowPolicy _overflowPolicy = NotificationQueue.OverflowPolicy.BLOCK;
+
     public Network getNetwork() {
         return _network;
     }
 
     /**
+     * Loads a network snapshot, or a legacy file saved by the original release.
+     *
      * @param filename name of the file containing the serialized application's
      *                 state
      *                 to load.
      * @throws UnavailableFileException if the specified file does not exist or
      *                                  there is
-     *                                  an error while processing this file.
+     *                                  an error while processing this file;
+     *                                  or if the current network couldn't be
+     *                                  saved in the background, which is then
+     *                                  kept, unsaved
      */
     public void load(String filename) throws UnavailableFileException {
-        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
-            _network = (Network) ois.readObject();
+        try {
+            awaitSave();
+        } catch (IOException e) {
+            UnavailableFileException unsaved = new UnavailableFileException(filename);
+            unsaved.initCause(e);
+            throw unsaved;
+        }
+        try {
+            Network network = SnapshotReader.read(filename);
+            _network.setNotificationQueue(0, null);
+            _network.getJournal().close();
+            _network = network;
+            _network.setConcurrent(_concurrent);
+            _network.setNotificationQueue(_notificationCapacity, _overflowPolicy);
             _currentFile = filename;
         } catch (IOException | ClassNotFoundException e) {
             throw new UnavailableFileException(filename);
@@ -39,7 +79,16 @@ public class NetworkManager {
 
     /**
      * Saves the serialized application's state into the file associated to the
-     * current network.
+     * current network, in the compact {@link Snapshot} format. Once the file is
+     * written, changes are appended to its {@link Journal} as they are made, and
+     * saving only forces them to disk, until the journal is large enough to be
+     * folded into a new snapshot.
+     *
+     * For a new snapshot, the calling thread only copies the state it holds,
+     * while operations running concurrently wait; the copy is encoded and
+     * written in the background, replacing the file atomically, and the next
+     * save waits for it. When the journal grows large, only the segments of the
+     * snapshot it changed are copied and written anew.
      *
      * @throws FileNotFoundException           if for some reason the file cannot be
      *                                         created or opened.
@@ -47,15 +96,75 @@ public class NetworkManager {
      *                                         a file.
      * @throws IOException                     if there is some error while
      *                                         serializing the state of the network
-     *                                         to disk.
+     *                                         to disk, or the previous snapshot
+     *                                         couldn't be written.
      */
     public void save() throws FileNotFoundException, MissingFileAssociationException, IOException {
         if (!hasOpenedFile())
             throw new MissingFileAssociationException();
 
-        try (ObjectOutputStream oos = new ObjectOutputStream(
-                new BufferedOutputStream(new FileOutputStream(_currentFile)))) {
-            oos.writeObject(_network);
+        awaitSave();
+        Journal journal = _network.getJournal();
+        String filename = _currentFile;
+        int level = _compressionLevel;
+        SnapshotWriter.Capture snapshot;
+        // Operations running concurrently wait while the changes are taken
+        StripedLocks.Held held = _network.lockAll();
+        try {
+            if (journal.canAppendTo(filename)) {
+                journal.flush();
+                if (!journal.shouldCompact())
+                    return;
+            }
+
+            _network.flushNotifications();
+            snapshot = SnapshotWriter.capture(_network, filename);
+            journal.rebase(filename, snapshot.getSegments());
+        } finally {
+            held.unlock();
+        }
+        saveInBackground(() -> {
+            snapshot.encode().writeTo(filename, level);
+            journal.replaced(filename);
+            return null;
+        });
+    }
+
+    private void saveInBackground(Callable<Void> save) {
+        _pendingSave = new FutureTask<>(save);
+        // not a daemon: the application doesn't exit before the file is written
+        new Thread(_pendingSave, "snapshot-writer").start();
+    }
+
+    /**
+     * Waits for the snapshot being written in the background, if any. If it
+     * couldn't be written, the network is left unsaved and its next save
+     * writes a new snapshot.
+     *
+     * @throws IOException if the snapshot couldn't be written, caused by what
+     *                     stopped it
+     */
+    public void awaitSave() throws IOException {
+        if (_pendingSave == null)
+            return;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    _pendingSave.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            _network.failedSave();
+            _network.getJournal().requireSnapshot();
+            throw new IOException("Network snapshot not written", e.getCause());
+        } finally {
+            _pendingSave = null;
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
     }
 
@@ -78,6 +187,67 @@ public class NetworkManager {
         save();
     }
 
+    /**
+     * Sets how new snapshots are compressed. Compressed snapshots are smaller
+     * but take longer to write and to load, and are read in full on load
+     * instead of on demand. Loading tells them apart by themselves.
+     *
+     * @param level level of the compression, from
+     *              {@link Deflater#BEST_SPEED} to
+     *              {@link Deflater#BEST_COMPRESSION}, or
+     *              {@link Deflater#DEFAULT_COMPRESSION}; or
+     *              {@link Deflater#NO_COMPRESSION}, the default, to leave them
+     *              uncompressed
+     */
+    public void setCompressionLevel(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        _compressionLevel = level;
+    }
+
+    public int getCompressionLevel() {
+        return _compressionLevel;
+    }
+
+    /**
+     * Sets whether operations on the network may run concurrently, from
+     * several threads; see {@link Network#setConcurrent(boolean)}. The
+     * setting carries over to the networks loaded later. It must not be
+     * changed while operations are running.
+     *
+     * @param concurrent true to let operations run concurrently
+     */
+    public void setConcurrent(boolean concurrent) {
+        _concurrent = concurrent;
+        _network.setConcurrent(concurrent);
+    }
+
+    public boolean isConcurrent() {
+        return _concurrent;
+    }
+
+    /**
+     * Sets how notifications reach the clients; see
+     * {@link Network#setNotificationQueue}. The setting carries over to the
+     * networks loaded later. It must not be changed while operations are
+     * running.
+     *
+     * @param capacity most notifications waiting at once, or 0, the default,
+     *                 to deliver them as they are sent
+     * @param policy   what a notification sent while the queue is full does
+     */
+    public void setNotificationQueue(int capacity, NotificationQueue.OverflowPolicy policy) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        _notificationCapacity = capacity;
+        _overflowPolicy = policy;
+        _network.setNotificationQueue(capacity, policy);
+    }
+
+    public int getNotificationCapacity() {
+        return _notificationCapacity;
+    }
+
     public boolean hasOpenedFile() {
         return !_currentFile.equals("");
     }
@@ -90,10 +260,18 @@ public class NetworkManager {
      */
     public void importFile(String filename) throws ImportFileException {
         try {
-            _network.importFile(filename);
+            _lastImport = _network.importFile(filename);
         } catch (IOException | UnrecognizedEntryException | InvalidEntryException e) {
             throw new ImportFileException(filename, e);
         }
     }
 
+    /**
+     * @return figures about the last successful import, including its throughput
+     *         in lines per second, or null if nothing was imported
+     */
+    public ImportStatistics getLastImportStatistics() {
+        return _lastImport;
+    }
+
 }
@@ -0,0 +1,119 @@
+package prr;
+
+import java.util.BitSet;
+
+import prr.clients.Client;
+import prr.observers.Observer;
+import prr.terminals.Terminal;
+import prr.util.CollatedKey;
+
+/**
+ * How a {@link Snapshot} splits the clients of a network in segments, each
+ * holding a range of client keys in a file of its own, and which segments
+ * changed since the snapshot was written.
+ *
+ * A segment holds its clients, their terminals and the communications those
+ * made, so a change dirties the segments of the clients it affects. The ranges
+ * are kept until the network is next saved in full.
+ */
+class Segments {
+
+    /** Key of the first client of each segment; the first segment starts at the lowest key */
+    private final String[] firstKeys;
+    private final CollatedKey[] bounds;
+
+    /** File of each segment, next to the snapshot, and its size uncompressed */
+    private final String[] files;
+    private final long[] sizes;
+
+    /** Number given to the next segment file created */
+    private final int nextFile;
+
+    private final BitSet dirty = new BitSet();
+
+    /**
+     * @param firstKeys key of the first client of each segment, ignored for the
+     *                  first one
+     * @param files     file of each segment
+     * @param sizes     size of each segment, uncompressed
+     * @param nextFile  number given to the next segment file created
+     */
+    Segments(String[] firstKeys, String[] files, long[] sizes, int nextFile) {
+        this.firstKeys = firstKeys;
+        this.files = files;
+        this.sizes = sizes;
+        this.nextFile = nextFile;
+        bounds = new CollatedKey[firstKeys.length];
+        for (int i = 1; i < firstKeys.length; i++)
+            bounds[i] = new CollatedKey(firstKeys[i]);
+    }
+
+    int count() {
+        return files.length;
+    }
+
+    String getFirstKey(int segment) {
+        return firstKeys[segment];
+    }
+
+    String getFile(int segment) {
+        return files[segment];
+    }
+
+    long getSize(int segment) {
+        return sizes[segment];
+    }
+
+    int getNextFile() {
+        return nextFile;
+    }
+
+    /**
+     * @return the segment whose range holds the client's key
+     */
+    int segmentOf(Client client) {
+        CollatedKey key = client.getSortKey();
+        int low = 1;
+        int high = bounds.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (bounds[middle].compareTo(key) <= 0)
+                low = middle + 1;
+            else
+                high = middle - 1;
+        }
+        return low - 1;
+    }
+
+    void touch(Client client) {
+        dirty.set(segmentOf(client));
+    }
+
+    /**
+     * Dirties the segment of a terminal, and those of the clients observing it,
+     * which it notifies when its state changes.
+     */
+    void touch(Terminal terminal) {
+        touch(terminal.getOwner());
+        for (Observer observer : terminal.getTextCommunicationObservers())
+            if (observer instanceof Client)
+                touch((Client) observer);
+        for (Observer observer : terminal.getInteractiveCommunicationObservers())
+            if (observer instanceof Client)
+                touch((Client) observer);
+    }
+
+    boolean isDirty(int segment) {
+        return dirty.get(segment);
+    }
+
+    /**
+     * @return the size of the segments that changed, uncompressed
+     */
+    long getDirtySize() {
+        long size = 0;
+        for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1))
+            size += sizes[i];
+        return size;
+    }
+}
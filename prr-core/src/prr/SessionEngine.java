@@ -0,0 +1,269 @@
+package prr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import prr.exceptions.InvalidOperationException;
+import prr.exceptions.KeyRelatedException;
+import prr.exceptions.TerminalStateException;
+import prr.terminals.FancyTerminal;
+import prr.terminals.Terminal;
+
+/**
+ * Drives simulated terminal sessions against a network in concurrent mode.
+ * Each session works a terminal: it sends texts and starts voice or video
+ * communications to terminals picked at random, and ends the communications
+ * it started. Sessions outnumbering the terminals share them.
+ *
+ * Where the runtime has virtual threads, each session runs in one of its own,
+ * and a semaphore bounds how many of them run an operation at once. Elsewhere
+ * each session is a task running one operation at a time on a fixed pool of
+ * that size, queued again after each. Either way a waiting session holds no
+ * platform thread, so the number of sessions is bounded by memory alone.
+ */
+public class SessionEngine {
+
+    /** Longest communication a session ends, in units */
+    private static final int MAX_UNITS = 60;
+
+    private static final String[] MESSAGES = { "ok", "on my way", "call me back when you can", "see you" };
+
+    private final Network network;
+
+    private int sessions = 1000;
+    private int operations = 100;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private long seed = 0;
+
+    /** Operations attempted and rejected, across all sessions */
+    private final LongAdder attempted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /** Error that ended a session, other than a rejected operation */
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    /**
+     * @param network the network to drive, in concurrent mode
+     */
+    public SessionEngine(Network network) {
+        this.network = network;
+    }
+
+    /**
+     * @param sessions number of sessions run at the same time
+     */
+    public void setSessions(int sessions) {
+        if (sessions <= 0)
+            throw new IllegalArgumentException("Invalid session count " + sessions);
+        this.sessions = sessions;
+    }
+
+    /**
+     * @param operations number of operations each session runs
+     */
+    public void setOperationsPerSession(int operations) {
+        if (operations < 0)
+            throw new IllegalArgumentException("Invalid operation count " + operations);
+        this.operations = operations;
+    }
+
+    /**
+     * @param parallelism number of sessions running an operation at once
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param seed seed of the choices the sessions make
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /** A session working a terminal, one operation at a time */
+    private final class Session implements Runnable {
+
+        private final Terminal terminal;
+        private final String[] receivers;
+        private final SplittableRandom random;
+        private final CountDownLatch done;
+        private final ExecutorService pool;
+        private int remaining = operations;
+
+        /** Whether the session started a communication it hasn't ended yet */
+        private boolean calling = false;
+
+        /**
+         * @param pool the pool to queue the session again in after each
+         *             operation, or null if it runs in a thread of its own
+         */
+        private Session(Terminal terminal, String[] receivers, SplittableRandom random, CountDownLatch done,
+                ExecutorService pool) {
+            this.terminal = terminal;
+            this.receivers = receivers;
+            this.random = random;
+            this.done = done;
+            this.pool = pool;
+        }
+
+        @Override
+        public void run() {
+            if (remaining > 0 && failure.get() == null) {
+                try {
+                    operate();
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+                remaining--;
+            }
+            if (remaining > 0 && failure.get() == null)
+                pool.execute(this);
+            else
+                finish();
+        }
+
+        /** Runs every operation of the session, a permit at a time */
+        private void runAll(Semaphore permits) {
+            try {
+                while (remaining-- > 0 && failure.get() == null) {
+                    permits.acquireUninterruptibly();
+                    try {
+                        operate();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                permits.acquireUninterruptibly();
+                try {
+                    finish();
+                } finally {
+                    permits.release();
+                }
+            }
+        }
+
+        /**
+         * Ends the communication the session left open, so no terminal stays
+         * busy after the run, and counts the session as done.
+         */
+        private void finish() {
+            try {
+                if (calling) {
+                    calling = false;
+                    terminal.endCommunication(1 + random.nextInt(MAX_UNITS));
+                }
+            } catch (IllegalStateException e) {
+                // another session on the terminal ended the communication first
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void operate() {
+            attempted.increment();
+            try {
+                if (calling) {
+                    calling = false;
+                    terminal.endCommunication(1 + random.nextInt(MAX_UNITS));
+                } else if (random.nextBoolean()) {
+                    terminal.sendText(receivers[random.nextInt(receivers.length)],
+                            MESSAGES[random.nextInt(MESSAGES.length)], network);
+                } else {
+                    String type = terminal instanceof FancyTerminal && random.nextBoolean() ? "VIDEO" : "VOICE";
+                    terminal.startInteractiveCommunication(receivers[random.nextInt(receivers.length)], type,
+                            network);
+                    calling = true;
+                }
+            } catch (KeyRelatedException | TerminalStateException | InvalidOperationException e) {
+                rejected.increment();
+            } catch (IllegalStateException e) {
+                // another session on the terminal ended the communication first
+                rejected.increment();
+            }
+        }
+    }
+
+    /**
+     * Runs the sessions until each has run its operations and ended the
+     * communication it left open, if any.
+     *
+     * @return the figures of the run
+     * @throws IllegalStateException if the network is not in concurrent mode or
+     *                               has no terminals
+     * @throws InterruptedException  if interrupted while waiting for the
+     *                               sessions, which are then stopped
+     * @throws RuntimeException      the unexpected error a session failed with,
+     *                               if any, once all stopped
+     */
+    public SessionStatistics run() throws InterruptedException {
+        if (!network.isConcurrent())
+            throw new IllegalStateException("Sessions need the network in concurrent mode");
+        List<Terminal> terminals = new ArrayList<>(network.getTerminals());
+        if (terminals.isEmpty())
+            throw new IllegalStateException("No terminals to run sessions on");
+        String[] receivers = new String[terminals.size()];
+        for (int i = 0; i < receivers.length; i++)
+            receivers[i] = terminals.get(i).getKey();
+
+        attempted.reset();
+        rejected.reset();
+        failure.set(null);
+        SplittableRandom random = new SplittableRandom(seed);
+        CountDownLatch done = new CountDownLatch(sessions);
+        ExecutorService virtual = newVirtualThreadExecutor();
+        ExecutorService pool = virtual != null ? virtual : Executors.newFixedThreadPool(parallelism);
+        Semaphore permits = new Semaphore(parallelism);
+
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < sessions; i++) {
+                Session session = new Session(terminals.get(i % terminals.size()), receivers, random.split(), done,
+                        virtual != null ? null : pool);
+                if (virtual != null)
+                    pool.execute(() -> session.runAll(permits));
+                else
+                    pool.execute(session);
+            }
+            done.await();
+        } finally {
+            pool.shutdownNow();
+        }
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        long nanos = System.nanoTime() - start;
+
+        if (failure.get() != null)
+            throw failure.get();
+        return new SessionStatistics(sessions, attempted.sum(), rejected.sum(), nanos, virtual != null);
+    }
+
+    /**
+     * @return an executor starting a virtual thread per task, or null if the
+     *         runtime has no virtual threads; looked up reflectively, since
+     *         the core builds on releases without them
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        if (Boolean.getBoolean("prr.sessions.platformThreads"))
+            return null;
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package prr;
+
+/**
+ * Figures about a completed run of a {@link SessionEngine}.
+ */
+public class SessionStatistics {
+
+    private final int sessions;
+    private final long operations;
+    private final long rejected;
+    private final long nanos;
+    private final boolean virtualThreads;
+
+    /**
+     * @param sessions       number of sessions run
+     * @param operations     number of operations attempted
+     * @param rejected       number of those the network rejected, such as calls
+     *                       to busy terminals
+     * @param nanos          time taken, in nanoseconds
+     * @param virtualThreads whether the sessions ran in virtual threads
+     */
+    public SessionStatistics(int sessions, long operations, long rejected, long nanos, boolean virtualThreads) {
+        this.sessions = sessions;
+        this.operations = operations;
+        this.rejected = rejected;
+        this.nanos = nanos;
+        this.virtualThreads = virtualThreads;
+    }
+
+    public int getSessions() {
+        return sessions;
+    }
+
+    public long getOperations() {
+        return operations;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public boolean usedVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @return the throughput, in operations attempted per second
+     */
+    public double getOperationsPerSecond() {
+        return nanos == 0 ? 0 : operations * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return sessions + " sessions, " + operations + " operations (" + rejected + " rejected) in "
+                + nanos / 1_000_000 + " ms (" + Math.round(getOperationsPerSecond()) + " operations/s, "
+                + (virtualThreads ? "virtual threads" : "task pool") + ")";
+    }
+}
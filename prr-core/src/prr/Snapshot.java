@@ -0,0 +1,111 @@
+package prr;
+
+/**
+ * Constants of the binary snapshot format used to save and load networks.
+ *
+ * A snapshot is a manifest, the file it is saved to, and the files of the
+ * {@link Segments} it splits the clients of the network in, by key range. The
+ * manifest starts with {@link #MAGIC} and {@link #VERSION}, followed by a
+ * record with the network counters, the number of the last {@link Journal}
+ * record folded in and the number of segments, and one record per segment
+ * with its file, next to the manifest, the key of its first client and its
+ * size. Saving again rewrites only the segments changed since, under new
+ * names, and then the manifest.
+ *
+ * A segment starts with {@link #SEGMENT_MAGIC} and the version, followed by a
+ * record with its counts, one record per client, per communication and per
+ * terminal, in key order, a record indexing the communications by key, and a
+ * trailer with the offsets of the first terminal and of the index and
+ * {@link #SEGMENT_MAGIC} again. A segment holds its clients, their terminals
+ * and the communications those made. Each record is prefixed by its length in
+ * bytes, so a reader can skip it without decoding it.
+ *
+ * Segments are meant to be memory-mapped: clients and terminals are read up
+ * front, but a communication is only decoded when first needed. Terminals list
+ * the communications they made by key and record offset, and those they
+ * received by key and segment. The records of communications don't refer to
+ * anything else in the file. No record crosses a multiple of
+ * {@link #REGION_SIZE}; the gap before one that would is zeroed.
+ *
+ * Entities refer to each other by number: clients by their position in the
+ * segment, or by key from other segments, terminals by identity and
+ * communications by their long key. Client strings are interned: the first
+ * occurrence is written in full and later ones by reference.
+ *
+ * A segment may be compressed with java.util.zip: the file then starts with
+ * {@link #COMPRESSED_MAGIC}, the version, the level it was compressed with and
+ * the size of the segment, followed by the segment in blocks of
+ * {@link #BLOCK_SIZE} bytes, each compressed on its own and prefixed by its
+ * compressed and uncompressed sizes.
+ *
+ * Only snapshots of {@link #VERSION} are read; networks saved by the original
+ * release are read by {@link LegacyReader}.
+ */
+final class Snapshot {
+
+    /** "PRRS", never the start of a Java serialization stream */
+    static final int MAGIC = 0x50525253;
+
+    /** "PRRG", for a segment */
+    static final int SEGMENT_MAGIC = 0x50525247;
+
+    /** "PRRZ", for a compressed snapshot or segment */
+    static final int COMPRESSED_MAGIC = 0x5052525A;
+
+    static final short VERSION = 1;
+
+    /** Number of clients in each segment of a network saved in full */
+    static final int SEGMENT_CLIENTS = 1024;
+
+    /** A segment grown past this many clients has the network saved in full */
+    static final int MAX_SEGMENT_CLIENTS = 4 * SEGMENT_CLIENTS;
+
+    /** Size of the regions a snapshot is mapped in */
+    static final long REGION_SIZE = 1L << 30;
+
+    /** Size of the blocks a snapshot is compressed in, dividing {@link #REGION_SIZE} */
+    static final int BLOCK_SIZE = 1 << 20;
+
+    /** Size of the header of a compressed snapshot */
+    static final int COMPRESSED_HEADER_SIZE = 15;
+
+    /** Size of the trailer of a segment: the offsets of the first terminal and of the index, and the magic */
+    static final int SEGMENT_TRAILER_SIZE = 20;
+
+    static final byte NORMAL = 0;
+    static final byte GOLD = 1;
+    static final byte PLATINUM = 2;
+
+    static final byte BASIC = 0;
+    static final byte FANCY = 1;
+
+    static final byte NO_STATE = -1;
+    static final byte IDLE = 0;
+    static final byte BUSY = 1;
+    static final byte OFF = 2;
+    static final byte SILENCE = 3;
+
+    static final byte TEXT = 0;
+    static final byte VOICE = 1;
+    static final byte VIDEO = 2;
+
+    /** Communication flags */
+    static final byte PAID = 1;
+    static final byte FINISHED = 2;
+    static final byte MADE = 4;
+
+    static final byte OFF_TO_IDLE = 0;
+    static final byte OFF_TO_SILENT = 1;
+    static final byte SILENT_TO_IDLE = 2;
+    static final byte BUSY_TO_IDLE = 3;
+
+    /** The default plan; any other is written with Java serialization */
+    static final byte BASE_PLAN = 0;
+    static final byte SERIALIZED_PLAN = 1;
+
+    static final byte IN_APP_DELIVERY = 0;
+
+    private Snapshot() {
+        // constants only
+    }
+}
@@ -0,0 +1,190 @@
+package prr;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The bytes of a snapshot file, memory-mapped, or inflated on the heap if the
+ * file is compressed.
+ *
+ * The bytes are split in regions of {@link Snapshot#REGION_SIZE} bytes, since
+ * a single buffer can't exceed 2 GiB. No record crosses the boundary between
+ * two regions, so each record is read from a single buffer.
+ */
+class SnapshotFile {
+
+    private final ByteBuffer[] regions;
+    private final long size;
+
+    private SnapshotFile(ByteBuffer[] regions, long size) {
+        this.regions = regions;
+        this.size = size;
+    }
+
+    /**
+     * Maps a snapshot file in memory. The mapping stays valid after the
+     * channel is closed.
+     *
+     * @param channel the file
+     * @return the mapped snapshot
+     * @throws IOException if the file can't be mapped
+     */
+    static SnapshotFile map(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer[] regions = new ByteBuffer[(int) ((size + Snapshot.REGION_SIZE - 1) / Snapshot.REGION_SIZE)];
+        for (int i = 0; i < regions.length; i++) {
+            long start = (long) i * Snapshot.REGION_SIZE;
+            regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(Snapshot.REGION_SIZE, size - start));
+        }
+        return new SnapshotFile(regions, size);
+    }
+
+    /**
+     * Reads a compressed snapshot file, inflating it on the heap.
+     *
+     * @param channel the file, from its start
+     * @return the snapshot
+     * @throws IOException if the file can't be read or is corrupt
+     */
+    static SnapshotFile inflate(FileChannel channel) throws IOException {
+        ByteBuffer header = readFully(channel, ByteBuffer.allocate(Snapshot.COMPRESSED_HEADER_SIZE));
+        if (header.getInt() != Snapshot.COMPRESSED_MAGIC)
+            throw new StreamCorruptedException("Not a compressed network snapshot");
+        short version = header.getShort();
+        if (version != Snapshot.VERSION)
+            throw new StreamCorruptedException("Unsupported snapshot version " + version);
+        header.get(); // level
+        long size = header.getLong();
+        if (size < 0)
+            throw new StreamCorruptedException("Corrupt compressed network snapshot");
+
+        ByteBuffer[] regions = new ByteBuffer[(int) ((size + Snapshot.REGION_SIZE - 1) / Snapshot.REGION_SIZE)];
+        for (int i = 0; i < regions.length; i++)
+            regions[i] = ByteBuffer.allocate((int) Math.min(Snapshot.REGION_SIZE, size - (long) i * Snapshot.REGION_SIZE));
+        SnapshotFile file = new SnapshotFile(regions, size);
+
+        Inflater inflater = new Inflater();
+        ByteBuffer sizes = ByteBuffer.allocate(8);
+        ByteBuffer input = ByteBuffer.allocate(Snapshot.BLOCK_SIZE);
+        try {
+            for (long offset = 0; offset < size;) {
+                readFully(channel, sizes.clear());
+                int compressed = sizes.getInt();
+                int length = sizes.getInt();
+                if (compressed < 0 || length <= 0 || length > Snapshot.BLOCK_SIZE || offset + length > size)
+                    throw new StreamCorruptedException("Corrupt compressed network snapshot");
+                if (input.capacity() < compressed)
+                    input = ByteBuffer.allocate(compressed);
+                readFully(channel, input.clear().limit(compressed));
+
+                // blocks are aligned, so none crosses into the next region
+                ByteBuffer block = file.at(offset);
+                block.limit(block.position() + length);
+                inflater.reset();
+                inflater.setInput(input);
+                while (block.hasRemaining() && !inflater.finished())
+                    if (inflater.inflate(block) == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                if (block.hasRemaining() || !inflater.finished())
+                    throw new StreamCorruptedException("Corrupt compressed network snapshot");
+                offset += length;
+            }
+        } catch (DataFormatException e) {
+            StreamCorruptedException corrupt = new StreamCorruptedException("Corrupt compressed network snapshot");
+            corrupt.initCause(e);
+            throw corrupt;
+        } finally {
+            inflater.end();
+        }
+        return file;
+    }
+
+    /**
+     * @return the buffer, filled from the channel and flipped
+     * @throws EOFException if the channel ends first
+     */
+    private static ByteBuffer readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            if (channel.read(buffer) < 0)
+                throw new EOFException("Truncated network snapshot");
+        return buffer.flip();
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @param offset a position in the snapshot
+     * @return a buffer of its own over the region holding the position,
+     *         positioned there
+     */
+    ByteBuffer at(long offset) {
+        if (offset < 0 || offset > size)
+            throw new IndexOutOfBoundsException("Offset " + offset + " outside the snapshot");
+        int region = (int) (offset / Snapshot.REGION_SIZE);
+        if (region == regions.length)
+            region--;
+        ByteBuffer buffer = regions[region].duplicate();
+        buffer.position((int) (offset - (long) region * Snapshot.REGION_SIZE));
+        return buffer;
+    }
+
+    /**
+     * @param offset a position in the snapshot
+     * @return the offset of the region holding the position
+     */
+    static long regionStart(long offset) {
+        return offset - offset % Snapshot.REGION_SIZE;
+    }
+
+    /**
+     * @param offset where a record is expected
+     * @return the offset of the record, past the padding that ends a region
+     */
+    long nextRecord(long offset) {
+        ByteBuffer buffer = at(offset);
+        if (buffer.remaining() >= 4 && buffer.getInt(buffer.position()) != 0)
+            return offset;
+        return regionStart(offset) + Snapshot.REGION_SIZE;
+    }
+
+    /** Reads a non-negative int written in 7-bit groups, low group first */
+    static int getVarInt(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /** Reads a non-negative long written in 7-bit groups, low group first */
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /** Reads a string written in full, not interned */
+    static String getInlineString(ByteBuffer buffer) {
+        byte[] bytes = new byte[getVarInt(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,494 @@
+package prr;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import prr.clients.Client;
+import prr.clients.PriceCalculator;
+import prr.communications.Communication;
+import prr.communications.InteractiveCommunication;
+import prr.communications.TextCommunication;
+import prr.communications.VideoCommunication;
+import prr.communications.VoiceCommunication;
+import prr.notifications.BusyToIdleNotification;
+import prr.notifications.Notification;
+import prr.notifications.OffToIdleNotification;
+import prr.notifications.OffToSilentNotification;
+import prr.notifications.SilentToIdleNotification;
+import prr.terminals.BasicTerminal;
+import prr.terminals.FancyTerminal;
+import prr.terminals.Terminal;
+import prr.terminals.states.TerminalState;
+import prr.util.IntHashMap;
+
+/**
+ * Decodes a network from the {@link Snapshot} format.
+ *
+ * Communications stay in the snapshot until needed, see
+ * {@link MappedCommunications}.
+ */
+class SnapshotReader {
+
+    /** The manifest, and the file being read */
+    private final Path location;
+    private SnapshotFile file;
+
+    /** The region holding the record being read, its offset, and the offset right after the record */
+    private ByteBuffer buffer;
+    private long base;
+    private long end;
+
+    /** Interned strings, by reference number minus one */
+    private final List<String> strings = new ArrayList<>();
+
+    private final Network network = new Network();
+    private final List<Client> clients = new ArrayList<>();
+    private final IntHashMap<Terminal> terminals = new IntHashMap<>();
+
+    /** Identities of the terminals of each client, resolved last */
+    private final List<int[]> clientTerminals = new ArrayList<>();
+
+    /** Position of the first client of the segment being read */
+    private int firstClient;
+
+    /**
+     * Friends, observers and current communication of each terminal, resolved
+     * last; the current communication by key and segment
+     */
+    private final IntHashMap<int[]> pendingFriends = new IntHashMap<>();
+    private final IntHashMap<String[]> pendingTextObservers = new IntHashMap<>();
+    private final IntHashMap<String[]> pendingInteractiveObservers = new IntHashMap<>();
+    private final IntHashMap<Long> pendingCurrent = new IntHashMap<>();
+    private final IntHashMap<Integer> pendingCurrentSegments = new IntHashMap<>();
+
+    /** Communications left in the snapshot */
+    private MappedCommunications mapped;
+
+    /** Network counters */
+    private long communicationKey;
+    private double globalPayments;
+    private double globalDebts;
+    private int logged;
+
+    /**
+     * @param file     the snapshot, or its manifest
+     * @param location the file it was read from
+     */
+    SnapshotReader(SnapshotFile file, Path location) {
+        this.file = file;
+        this.location = location;
+    }
+
+    /**
+     * Reads a network from a file, either a snapshot, compressed or not, with its
+     * journal replayed, or a legacy file saved by the original release, see
+     * {@link LegacyReader}.
+     *
+     * @param filename the name of the file
+     * @return the network
+     * @throws IOException            if the file can't be read or is corrupt
+     * @throws ClassNotFoundException if a legacy file refers to an unknown class
+     */
+    static Network read(String filename) throws IOException, ClassNotFoundException {
+        Path location = Path.of(filename);
+        SnapshotFile file = open(location);
+        if (file != null) {
+            Network network = new SnapshotReader(file, location).read();
+            network.getJournal().replay(filename);
+            return network;
+        }
+
+        return LegacyReader.read(new BufferedInputStream(Files.newInputStream(location)));
+    }
+
+    /**
+     * Opens a snapshot or one of its segments: maps it in memory, or inflates
+     * it if it is compressed.
+     *
+     * @param location the file
+     * @return the file, or null if it is neither a snapshot nor a segment
+     * @throws IOException if the file can't be read
+     */
+    private static SnapshotFile open(Path location) throws IOException {
+        try (FileChannel channel = FileChannel.open(location, StandardOpenOption.READ)) {
+            ByteBuffer start = ByteBuffer.allocate(4);
+            while (start.hasRemaining() && channel.read(start) >= 0)
+                ;
+            start.flip();
+            if (start.remaining() < 4)
+                return null;
+            switch (start.getInt(0)) {
+                case Snapshot.MAGIC:
+                case Snapshot.SEGMENT_MAGIC:
+                    return SnapshotFile.map(channel);
+                case Snapshot.COMPRESSED_MAGIC:
+                    return SnapshotFile.inflate(channel.position(0));
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Reads the segments a file refers to, for a new snapshot to replace it.
+     *
+     * @param filename the name of the file
+     * @return the segments, or null if the file doesn't exist or isn't a
+     *         snapshot
+     * @throws IOException if the file can't be read
+     */
+    static Segments readSegments(String filename) throws IOException {
+        Path location = Path.of(filename);
+        if (!Files.exists(location))
+            return null;
+        SnapshotFile file = open(location);
+        if (file == null)
+            return null;
+        SnapshotReader reader = new SnapshotReader(file, location);
+        try {
+            reader.readHeader(Snapshot.MAGIC);
+            return reader.readManifest();
+        } catch (StreamCorruptedException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            // nothing it refers to can be told apart
+            return null;
+        }
+    }
+
+    /**
+     * @return the network held in the snapshot
+     * @throws IOException if the snapshot is corrupt or of another version
+     */
+    Network read() throws IOException {
+        try {
+            readHeader(Snapshot.MAGIC);
+            Segments segments = readManifest();
+            mapped = new MappedCommunications(network, logged);
+            for (int i = 0; i < segments.count(); i++) {
+                SnapshotFile segment = open(location.resolveSibling(segments.getFile(i)));
+                if (segment == null)
+                    throw new StreamCorruptedException("Not a network snapshot segment");
+                readSegment(segment);
+            }
+            resolve();
+            network.restoreCounters(communicationKey, globalPayments, globalDebts);
+            network.getJournal().setSegments(segments);
+            return network;
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+                | NullPointerException | ClassCastException e) {
+            StreamCorruptedException corrupt = new StreamCorruptedException("Corrupt network snapshot");
+            corrupt.initCause(e);
+            throw corrupt;
+        }
+    }
+
+    /**
+     * Starts reading the file, checking its magic and version.
+     */
+    private void readHeader(int magic) throws StreamCorruptedException {
+        buffer = file.at(0);
+        if (buffer.getInt() != magic)
+            throw new StreamCorruptedException("Not a network snapshot");
+        short version = buffer.getShort();
+        if (version != Snapshot.VERSION)
+            throw new StreamCorruptedException("Unsupported snapshot version " + version);
+        end = buffer.position();
+    }
+
+    /**
+     * Reads the counters and the segments of a manifest.
+     */
+    private Segments readManifest() {
+        beginRecord();
+        communicationKey = getVarLong();
+        globalPayments = buffer.getDouble();
+        globalDebts = buffer.getDouble();
+        network.getJournal().setSequence(buffer.getLong());
+        logged = getVarInt();
+        int nextFile = getVarInt();
+        int count = getVarInt();
+
+        String[] firstKeys = new String[count];
+        String[] files = new String[count];
+        long[] sizes = new long[count];
+        for (int i = 0; i < count; i++) {
+            beginRecord();
+            files[i] = SnapshotFile.getInlineString(buffer);
+            firstKeys[i] = SnapshotFile.getInlineString(buffer);
+            sizes[i] = getVarLong();
+        }
+        return new Segments(firstKeys, files, sizes, nextFile);
+    }
+
+    /**
+     * Reads the clients and terminals of a segment, leaving its communications
+     * in it.
+     */
+    private void readSegment(SnapshotFile segment) throws IOException {
+        file = segment;
+        readHeader(Snapshot.SEGMENT_MAGIC);
+        strings.clear();
+        firstClient = clients.size();
+
+        beginRecord();
+        int clientCount = getVarInt();
+        int terminalCount = getVarInt();
+        int communicationCount = getVarInt();
+        for (int i = 0; i < clientCount; i++)
+            readClient();
+
+        ByteBuffer trailer = file.at(file.size() - Snapshot.SEGMENT_TRAILER_SIZE);
+        long firstTerminal = trailer.getLong();
+        long index = trailer.getLong();
+        if (trailer.getInt() != Snapshot.SEGMENT_MAGIC)
+            throw new StreamCorruptedException("Truncated network snapshot segment");
+        int number = mapped.addSegment(file, end, communicationCount, index);
+        end = firstTerminal;
+        for (int i = 0; i < terminalCount; i++)
+            readTerminal(number);
+    }
+
+    /**
+     * Reads a client, and the identities of its terminals, in the order they
+     * were added.
+     */
+    private void readClient() throws IOException {
+        beginRecord();
+        String key = getString();
+        String name = getString();
+        Client client = new Client(name, key, buffer.getInt(), network);
+
+        switch (buffer.get()) {
+            case Snapshot.GOLD:
+                client.setType(client.getGold());
+                break;
+            case Snapshot.PLATINUM:
+                client.setType(client.getPlatinum());
+                break;
+            default:
+                break;
+        }
+        if (buffer.get() == 0)
+            client.disableNotifications();
+        int textCount = getVarInt();
+        int videoCount = getVarInt();
+        client.restoreCounters(textCount, videoCount, buffer.getDouble(), buffer.getDouble());
+
+        if (buffer.get() == Snapshot.SERIALIZED_PLAN) {
+            byte[] serialized = new byte[getVarInt()];
+            buffer.get(serialized);
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+                client.setPlan((PriceCalculator) ois.readObject());
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("Unknown price plan", e);
+            }
+        }
+        if (buffer.get() != Snapshot.IN_APP_DELIVERY)
+            throw new StreamCorruptedException("Unknown delivery method");
+
+        int[] terminalIds = new int[getVarInt()];
+        for (int i = 0; i < terminalIds.length; i++)
+            terminalIds[i] = getVarInt();
+
+        int notifications = getVarInt();
+        for (int i = 0; i < notifications; i++)
+            client.queueNotification(newNotification(buffer.get(), getVarInt()));
+
+        clients.add(client);
+        clientTerminals.add(terminalIds);
+    }
+
+    /**
+     * @param segment the segment being read
+     */
+    private void readTerminal(int segment) {
+        beginRecord();
+        int id = getVarInt();
+        byte kind = buffer.get();
+        Client owner = clients.get(firstClient + getVarInt());
+        Terminal terminal = kind == Snapshot.FANCY ? new FancyTerminal(id, owner) : new BasicTerminal(id, owner);
+
+        terminal.setState(state(terminal, buffer.get()));
+        TerminalState saved = state(terminal, buffer.get());
+        if (saved != null)
+            terminal.saveState(saved);
+        terminal.restoreBalance(buffer.getDouble(), buffer.getDouble());
+
+        int[] friends = new int[getVarInt()];
+        for (int i = 0; i < friends.length; i++)
+            friends[i] = getVarInt();
+        if (friends.length > 0)
+            pendingFriends.put(id, friends);
+
+        pendingTextObservers.put(id, getObserverKeys());
+        pendingInteractiveObservers.put(id, getObserverKeys());
+
+        long current = getVarLong();
+        if (current != 0) {
+            pendingCurrent.put(id, current);
+            pendingCurrentSegments.put(id, getVarInt());
+        }
+
+        int made = getVarInt();
+        int received = getVarInt();
+        if (made + received > 0)
+            terminal.setLazyCommunications(mapped.history(segment, position(), made, received));
+
+        terminals.put(id, terminal);
+    }
+
+    /**
+     * Creates a communication read back from a snapshot.
+     *
+     * @param message the message of a text communication, null otherwise
+     * @return the communication, not yet attached to its terminals
+     */
+    static Communication newCommunication(long key, byte kind, Terminal sender, Terminal receiver, byte flags,
+            int units, double price, String message) {
+        Communication communication;
+        switch (kind) {
+            case Snapshot.TEXT:
+                communication = new TextCommunication(key, sender, receiver, message, false);
+                break;
+            case Snapshot.VOICE:
+                communication = new VoiceCommunication(key, sender, receiver);
+                break;
+            default:
+                communication = new VideoCommunication(key, sender, receiver);
+                break;
+        }
+        communication.setUnits(units);
+        communication.setPrice(price);
+        if ((flags & Snapshot.FINISHED) != 0)
+            communication.finish();
+        if ((flags & Snapshot.PAID) != 0)
+            communication.payCommunication();
+        return communication;
+    }
+
+    private String[] getObserverKeys() {
+        String[] keys = new String[getVarInt()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = getString();
+        return keys;
+    }
+
+    /**
+     * Links the entities that refer to others read after them, and adds them
+     * all to the network.
+     */
+    private void resolve() {
+        Map<String, Client> clientsByKey = new HashMap<>();
+        for (int i = 0; i < clients.size(); i++) {
+            clientsByKey.put(clients.get(i).getKey(), clients.get(i));
+            for (int id : clientTerminals.get(i))
+                clients.get(i).addTerminal(terminals.get(id));
+        }
+
+        for (Terminal terminal : terminals.sortedValues()) {
+            int[] friends = pendingFriends.get(terminal.getId());
+            if (friends != null)
+                for (int friend : friends)
+                    terminal.addFriend(terminals.get(friend));
+            String[] observers = pendingTextObservers.get(terminal.getId());
+            if (observers != null)
+                for (String observer : observers)
+                    terminal.registerTextCommunicationObserver(clientsByKey.get(observer));
+            observers = pendingInteractiveObservers.get(terminal.getId());
+            if (observers != null)
+                for (String observer : observers)
+                    terminal.registerInteractiveCommunicationObserver(clientsByKey.get(observer));
+            network.restoreTerminal(terminal);
+        }
+
+        // communications are decoded against the terminals of the network
+        for (Terminal terminal : terminals.sortedValues()) {
+            Long current = pendingCurrent.get(terminal.getId());
+            if (current == null)
+                continue;
+            Communication communication = mapped.find(current, pendingCurrentSegments.get(terminal.getId()));
+            terminal.setCurrentCommunication((InteractiveCommunication) communication);
+        }
+
+        for (Client client : clients)
+            network.restoreClient(client);
+        network.restoreCommunications(mapped);
+    }
+
+    private static TerminalState state(Terminal terminal, byte code) {
+        switch (code) {
+            case Snapshot.IDLE:
+                return terminal.getIdleState();
+            case Snapshot.BUSY:
+                return terminal.getBusyState();
+            case Snapshot.OFF:
+                return terminal.getOffState();
+            case Snapshot.SILENCE:
+                return terminal.getSilenceState();
+            default:
+                return null;
+        }
+    }
+
+    private static Notification newNotification(byte kind, int terminalId) {
+        switch (kind) {
+            case Snapshot.OFF_TO_IDLE:
+                return new OffToIdleNotification(terminalId);
+            case Snapshot.OFF_TO_SILENT:
+                return new OffToSilentNotification(terminalId);
+            case Snapshot.BUSY_TO_IDLE:
+                return new BusyToIdleNotification(terminalId);
+            default:
+                return new SilentToIdleNotification(terminalId);
+        }
+    }
+
+    /**
+     * Moves to the record after the current one, and reads its length.
+     */
+    private void beginRecord() {
+        long start = file.nextRecord(end);
+        buffer = file.at(start);
+        base = start - buffer.position();
+        end = start + 4 + buffer.getInt();
+    }
+
+    /**
+     * @return the offset of what is read next in the file
+     */
+    private long position() {
+        return base + buffer.position();
+    }
+
+    private int getVarInt() {
+        return SnapshotFile.getVarInt(buffer);
+    }
+
+    private long getVarLong() {
+        return SnapshotFile.getVarLong(buffer);
+    }
+
+    private String getString() {
+        int reference = getVarInt();
+        if (reference > 0)
+            return strings.get(reference - 1);
+        byte[] bytes = new byte[getVarInt()];
+        buffer.get(bytes);
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        strings.add(value);
+        return value;
+    }
+}
@@ -0,0 +1,960 @@
+package prr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import prr.clients.BasePlan;
+import prr.clients.Client;
+import prr.clients.PriceCalculator;
+import prr.communications.Communication;
+import prr.communications.TextCommunication;
+import prr.communications.VoiceCommunication;
+import prr.notifications.AsyncDelivery;
+import prr.notifications.BusyToIdleNotification;
+import prr.notifications.DeliveryMethod;
+import prr.notifications.InAppNotifications;
+import prr.notifications.Notification;
+import prr.notifications.OffToIdleNotification;
+import prr.notifications.OffToSilentNotification;
+import prr.observers.Observer;
+import prr.terminals.FancyTerminal;
+import prr.terminals.Terminal;
+import prr.terminals.states.TerminalState;
+
+/**
+ * Encodes a network in the {@link Snapshot} format: the manifest, and the
+ * {@link Segments} it splits the network in.
+ *
+ * A snapshot is taken in two steps: what it holds is first copied out of the
+ * network, which is only held still for as long as that takes, and the copy
+ * is then encoded while the network goes on changing.
+ */
+class SnapshotWriter {
+
+    /** Records are handed to the channel once this many bytes are buffered */
+    private static final int FLUSH_SIZE = 1 << 20;
+
+    private final WritableByteChannel channel;
+
+    /** Records not yet handed to the channel */
+    private ByteBuffer buffer = ByteBuffer.allocate(FLUSH_SIZE + (1 << 16));
+
+    /** Bytes already handed to the channel */
+    private long flushed = 0;
+
+    /** Interned strings, by reference number */
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    /** Keys of the communications written, in order, and the offset of each record */
+    private long[] communicationKeys;
+    private long[] communicationOffsets;
+
+    /**
+     * @param channel where to write the manifest or the segment
+     */
+    SnapshotWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Copies what a snapshot of the network holds, to be encoded and written
+     * to a file while the network goes on changing. If the file holds the
+     * snapshot the network was last read from or saved to, only the segments
+     * changed since are copied, and the others are kept; otherwise, the
+     * network is split in segments anew.
+     *
+     * @param network  the network to save, which must not change meanwhile
+     * @param filename the file the snapshot is for
+     * @return the copy
+     * @throws IOException if the network holds something the format can't
+     *                     represent, or the file can't be read
+     */
+    static Capture capture(Network network, String filename) throws IOException {
+        Journal journal = network.getJournal();
+        Segments base = journal.canAppendTo(filename) ? journal.getSegments() : null;
+        Segments replaced = SnapshotReader.readSegments(filename);
+        int nextFile = Math.max(base == null ? 0 : base.getNextFile(), replaced == null ? 0 : replaced.getNextFile());
+
+        List<List<Client>> members = base == null ? null : split(network.getClients(), base);
+        if (members != null)
+            for (int i = 0; i < members.size(); i++)
+                if (base.isDirty(i) && members.get(i).size() > Snapshot.MAX_SEGMENT_CLIENTS)
+                    members = null;
+        if (members == null) {
+            base = null;
+            members = partition(network.getClients());
+        }
+
+        int count = members.size();
+        String[] firstKeys = new String[count];
+        String[] files = new String[count];
+        long[] sizes = new long[count];
+        String name = Path.of(filename).getFileName().toString();
+        for (int i = 0; i < count; i++) {
+            if (base != null) {
+                firstKeys[i] = base.getFirstKey(i);
+                files[i] = base.isDirty(i) ? name + "." + nextFile++ : base.getFile(i);
+                sizes[i] = base.getSize(i);
+            } else {
+                firstKeys[i] = i == 0 ? "" : members.get(i).get(0).getKey();
+                files[i] = name + "." + nextFile++;
+            }
+        }
+        // sizes of the segments written are filled in as they are encoded
+        Segments layout = new Segments(firstKeys, files, sizes, nextFile);
+
+        List<SegmentCopy> changed = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            if (base == null || base.isDirty(i))
+                changed.add(new SegmentCopy(i, layout, members.get(i)));
+
+        List<String> obsolete = new ArrayList<>();
+        if (replaced != null)
+            for (int i = 0; i < replaced.count(); i++)
+                if (!Arrays.asList(files).contains(replaced.getFile(i)))
+                    obsolete.add(replaced.getFile(i));
+        return new Capture(network, layout, sizes, changed, obsolete);
+    }
+
+    /**
+     * @return the clients of each segment, in key order
+     */
+    private static List<List<Client>> split(Collection<Client> clients, Segments segments) {
+        List<List<Client>> members = new ArrayList<>();
+        for (int i = 0; i < segments.count(); i++)
+            members.add(new ArrayList<>());
+        for (Client client : clients)
+            members.get(segments.segmentOf(client)).add(client);
+        return members;
+    }
+
+    /**
+     * @return the clients, in key order, split in segments of
+     *         {@link Snapshot#SEGMENT_CLIENTS} clients
+     */
+    private static List<List<Client>> partition(Collection<Client> clients) {
+        List<List<Client>> members = new ArrayList<>();
+        List<Client> current = new ArrayList<>();
+        members.add(current);
+        for (Client client : clients) {
+            if (current.size() == Snapshot.SEGMENT_CLIENTS) {
+                current = new ArrayList<>();
+                members.add(current);
+            }
+            current.add(client);
+        }
+        return members;
+    }
+
+    /**
+     * What a snapshot holds, copied out of the network: its counters and the
+     * segments that changed.
+     */
+    static final class Capture {
+
+        private final Segments segments;
+
+        /** Size of each segment, shared with {@link #segments} */
+        private final long[] sizes;
+
+        private final List<SegmentCopy> changed;
+        private final List<String> obsolete;
+
+        /** Network counters, and the number of the last journal record folded in */
+        private final long communicationKey;
+        private final double globalPayments;
+        private final double globalDebts;
+        private final long sequence;
+        private final int logged;
+
+        private Capture(Network network, Segments segments, long[] sizes, List<SegmentCopy> changed,
+                List<String> obsolete) {
+            this.segments = segments;
+            this.sizes = sizes;
+            this.changed = changed;
+            this.obsolete = obsolete;
+            communicationKey = network.getLastCommunicationKey();
+            globalPayments = network.getGlobalPayments();
+            globalDebts = network.getGlobalDebts();
+            sequence = network.getJournal().getSequence();
+            logged = network.getCommunications().size();
+        }
+
+        /**
+         * @return the segments of the snapshot; the sizes of those that changed
+         *         are only known once it is encoded
+         */
+        Segments getSegments() {
+            return segments;
+        }
+
+        /**
+         * Encodes the snapshot in memory.
+         *
+         * @return the snapshot
+         * @throws IOException if a record is too large for the format
+         */
+        Frozen encode() throws IOException {
+            Map<String, Chunks> written = new LinkedHashMap<>();
+            for (SegmentCopy segment : changed) {
+                Chunks chunks = new Chunks();
+                new SnapshotWriter(chunks).writeSegment(segment);
+                sizes[segment.number] = chunks.size();
+                written.put(segments.getFile(segment.number), chunks);
+            }
+            Chunks manifest = new Chunks();
+            new SnapshotWriter(manifest).writeManifest(this);
+            return new Frozen(manifest, written, obsolete);
+        }
+    }
+
+    /**
+     * A snapshot encoded in memory: the manifest and the segments that changed.
+     */
+    static final class Frozen {
+
+        private final Chunks manifest;
+        private final Map<String, Chunks> written;
+        private final List<String> obsolete;
+
+        private Frozen(Chunks manifest, Map<String, Chunks> written, List<String> obsolete) {
+            this.manifest = manifest;
+            this.written = written;
+            this.obsolete = obsolete;
+        }
+
+        /**
+         * Replaces a file with the snapshot: writes the segments that changed
+         * to files of their own, then renames the manifest over the file, and
+         * only then deletes the segments the file referred to that the
+         * snapshot no longer does. A failure at any point leaves either the old
+         * snapshot or the new one.
+         *
+         * @param filename the name of the file
+         * @param level    level of the compression of the segments, from
+         *                 {@link Deflater}, or {@link Deflater#NO_COMPRESSION}
+         *                 to write them as they are
+         * @throws IOException if the files can't be written
+         */
+        void writeTo(String filename, int level) throws IOException {
+            Path target = Path.of(filename).toAbsolutePath();
+            for (Map.Entry<String, Chunks> segment : written.entrySet())
+                segment.getValue().writeTo(target.resolveSibling(segment.getKey()), level);
+            forceDirectory(target.getParent());
+            manifest.writeTo(target, Deflater.NO_COMPRESSION);
+            forceDirectory(target.getParent());
+            for (String file : obsolete) {
+                try {
+                    Files.deleteIfExists(target.resolveSibling(file));
+                } catch (IOException e) {
+                    // the snapshot is already replaced; a segment that can't
+                    // be deleted, for still being mapped, is merely left over
+                }
+            }
+        }
+
+        /** Makes the files renamed in a directory durable, where the platform allows it */
+        private static void forceDirectory(Path directory) {
+            try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                // directories can't be opened on every platform; the renames
+                // still happened, only their durability is up to the system
+            }
+        }
+    }
+
+    /**
+     * A file encoded in memory, as the chunks a writer flushed.
+     */
+    private static final class Chunks implements WritableByteChannel {
+
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+
+        @Override
+        public int write(ByteBuffer source) {
+            ByteBuffer chunk = ByteBuffer.allocate(source.remaining());
+            chunks.add(chunk.put(source).flip());
+            return chunk.limit();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // nothing to release
+        }
+
+        long size() {
+            long size = 0;
+            for (ByteBuffer chunk : chunks)
+                size += chunk.limit();
+            return size;
+        }
+
+        /**
+         * Replaces a file with the chunks: writes them to a temporary file
+         * next to it, forces that to disk and renames it over the file.
+         */
+        void writeTo(Path target, int level) throws IOException {
+            Path temporary = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                    if (level == Deflater.NO_COMPRESSION)
+                        for (ByteBuffer chunk : chunks)
+                            writeFully(channel, chunk.duplicate());
+                    else
+                        writeCompressed(channel, level);
+                    channel.force(true);
+                }
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+        private void writeCompressed(FileChannel channel, int level) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(Snapshot.COMPRESSED_HEADER_SIZE);
+            header.putInt(Snapshot.COMPRESSED_MAGIC).putShort(Snapshot.VERSION).put((byte) level).putLong(size());
+            writeFully(channel, header.flip());
+            Deflater deflater = new Deflater(level);
+            ByteBuffer block = ByteBuffer.allocate(Snapshot.BLOCK_SIZE);
+            // more than deflate can produce from a block, even if it doesn't compress
+            ByteBuffer compressed = ByteBuffer.allocate(8 + Snapshot.BLOCK_SIZE + (Snapshot.BLOCK_SIZE >> 6) + 64);
+            try {
+                for (ByteBuffer chunk : chunks) {
+                    ByteBuffer bytes = chunk.duplicate();
+                    while (bytes.hasRemaining()) {
+                        int length = Math.min(block.remaining(), bytes.remaining());
+                        block.put(bytes.slice().limit(length));
+                        bytes.position(bytes.position() + length);
+                        if (!block.hasRemaining())
+                            writeBlock(channel, deflater, block, compressed);
+                    }
+                }
+                if (block.position() > 0)
+                    writeBlock(channel, deflater, block, compressed);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        /** Compresses a block on its own and writes it with its sizes */
+        private static void writeBlock(FileChannel channel, Deflater deflater, ByteBuffer block, ByteBuffer compressed)
+                throws IOException {
+            block.flip();
+            deflater.reset();
+            deflater.setInput(block);
+            deflater.finish();
+            compressed.clear().position(8);
+            while (!deflater.finished())
+                if (deflater.deflate(compressed) == 0 && !compressed.hasRemaining())
+                    throw new IOException("Compressed block overflow");
+            compressed.putInt(0, compressed.position() - 8).putInt(4, block.limit());
+            writeFully(channel, compressed.flip());
+            block.clear();
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+        }
+    }
+
+    /**
+     * The clients of a segment, their terminals and the communications the
+     * segment holds, as they were when copied.
+     */
+    private static final class SegmentCopy {
+
+        private final int number;
+        private final List<ClientCopy> clients = new ArrayList<>();
+        private final List<TerminalCopy> terminals = new ArrayList<>();
+        private final List<CommunicationCopy> communications = new ArrayList<>();
+
+        /**
+         * @param number   the number of the segment
+         * @param segments the segments of the snapshot
+         * @param members  the clients of the segment, in key order
+         */
+        private SegmentCopy(int number, Segments segments, List<Client> members) throws IOException {
+            this.number = number;
+            Map<Client, Integer> positions = new IdentityHashMap<>();
+            List<Terminal> owned = new ArrayList<>();
+            for (Client client : members) {
+                positions.put(client, positions.size());
+                clients.add(new ClientCopy(client));
+                owned.addAll(client.getTerminals());
+            }
+            owned.sort(Comparator.comparingInt(Terminal::getId));
+            for (Terminal terminal : owned)
+                terminals.add(new TerminalCopy(terminal, positions.get(terminal.getOwner()), segments));
+            for (Communication communication : heldCommunications(owned))
+                communications.add(new CommunicationCopy(communication));
+        }
+    }
+
+    private static final class ClientCopy {
+
+        private final String key;
+        private final String name;
+        private final int nif;
+        private final byte type;
+        private final boolean notifications;
+        private final int textCount;
+        private final int videoCount;
+        private final double paid;
+        private final double debt;
+
+        /** The price plan serialized, or null for the default one */
+        private final byte[] plan;
+
+        private final int[] terminals;
+        private final byte[] notificationKinds;
+        private final int[] notificationIds;
+
+        private ClientCopy(Client client) throws IOException {
+            key = client.getKey();
+            name = client.getName();
+            nif = client.getNif();
+            type = client.getType() == client.getGold() ? Snapshot.GOLD
+                    : client.getType() == client.getPlatinum() ? Snapshot.PLATINUM : Snapshot.NORMAL;
+            notifications = client.getActiveNotifications();
+            textCount = client.getTextCount();
+            videoCount = client.getVideoCount();
+            paid = client.getPaid();
+            debt = client.getDebt();
+
+            PriceCalculator calculator = client.getCalculator();
+            plan = calculator.getClass() == BasePlan.class ? null : serialize(calculator);
+
+            DeliveryMethod delivery = client.getDeliveryMethod();
+            if (delivery instanceof AsyncDelivery)
+                delivery = ((AsyncDelivery) delivery).getTarget();
+            if (delivery.getClass() != InAppNotifications.class)
+                throw new NotSerializableException(delivery.getClass().getName());
+
+            terminals = client.getTerminals().stream().mapToInt(Terminal::getId).toArray();
+            notificationKinds = new byte[client.getNotifications().size()];
+            notificationIds = new int[notificationKinds.length];
+            int i = 0;
+            for (Notification notification : client.getNotifications()) {
+                notificationKinds[i] = notificationKind(notification);
+                notificationIds[i++] = notification.getId();
+            }
+        }
+    }
+
+    private static final class TerminalCopy {
+
+        private final int id;
+        private final byte kind;
+
+        /** Position of the owner in the segment */
+        private final int owner;
+
+        private final byte state;
+        private final byte savedState;
+        private final double paid;
+        private final double debt;
+        private final int[] friends;
+        private final String[] textObservers;
+        private final String[] interactiveObservers;
+
+        /** Key of the current communication, or 0, and the segment holding it */
+        private final long current;
+        private final int currentSegment;
+
+        /** Keys of the communications made, and of those received with their segments */
+        private final long[] made;
+        private final long[] received;
+        private final int[] receivedSegments;
+
+        private TerminalCopy(Terminal terminal, int owner, Segments segments) throws IOException {
+            id = terminal.getId();
+            kind = terminal instanceof FancyTerminal ? Snapshot.FANCY : Snapshot.BASIC;
+            this.owner = owner;
+            state = stateCode(terminal, terminal.getState());
+            savedState = stateCode(terminal, terminal.getSavedState());
+            paid = terminal.getPaid();
+            debt = terminal.getDebt();
+            friends = terminal.getFriendIds();
+            textObservers = observerKeys(terminal.getTextCommunicationObservers());
+            interactiveObservers = observerKeys(terminal.getInteractiveCommunicationObservers());
+
+            Communication communication = terminal.getCurrentCommunication();
+            current = communication == null ? 0 : communication.getKey();
+            currentSegment = communication == null ? 0 : segmentOf(segments, communication);
+
+            made = terminal.getMadeCommunications().stream().mapToLong(Communication::getKey).toArray();
+            Collection<Communication> receivedCommunications = terminal.getReceivedCommunications();
+            received = new long[receivedCommunications.size()];
+            receivedSegments = new int[received.length];
+            int i = 0;
+            for (Communication receivedCommunication : receivedCommunications) {
+                received[i] = receivedCommunication.getKey();
+                receivedSegments[i++] = segmentOf(segments, receivedCommunication);
+            }
+        }
+    }
+
+    private static final class CommunicationCopy {
+
+        private final long key;
+        private final byte kind;
+        private final int sender;
+        private final int receiver;
+        private final byte flags;
+        private final int units;
+        private final double price;
+
+        /** The message of a text communication, null otherwise */
+        private final String message;
+
+        private CommunicationCopy(Communication communication) {
+            key = communication.getKey();
+            kind = communication instanceof TextCommunication ? Snapshot.TEXT
+                    : communication instanceof VoiceCommunication ? Snapshot.VOICE : Snapshot.VIDEO;
+            sender = communication.getSenderId();
+            receiver = communication.getReceiverId();
+
+            int bits = 0;
+            if (communication.isPaid())
+                bits |= Snapshot.PAID;
+            if (communication.isFinished())
+                bits |= Snapshot.FINISHED;
+            if (communication.getSender().hasMade(communication))
+                bits |= Snapshot.MADE;
+            flags = (byte) bits;
+
+            units = communication.getUnits();
+            price = communication.getPrice();
+            message = kind == Snapshot.TEXT ? ((TextCommunication) communication).getMessage() : null;
+        }
+    }
+
+    /**
+     * Writes the manifest: the network counters, and the file, range and size
+     * of each segment.
+     *
+     * @param snapshot the snapshot, with the segments it changed encoded
+     * @throws IOException if the channel fails
+     */
+    void writeManifest(Capture snapshot) throws IOException {
+        buffer.putInt(Snapshot.MAGIC);
+        buffer.putShort(Snapshot.VERSION);
+
+        Segments segments = snapshot.segments;
+        int record = beginRecord();
+        putVarLong(snapshot.communicationKey);
+        putDouble(snapshot.globalPayments);
+        putDouble(snapshot.globalDebts);
+        putLong(snapshot.sequence);
+        putVarInt(snapshot.logged);
+        putVarInt(segments.getNextFile());
+        putVarInt(segments.count());
+        endRecord(record);
+
+        for (int i = 0; i < segments.count(); i++) {
+            record = beginRecord();
+            putInlineString(segments.getFile(i));
+            putInlineString(segments.getFirstKey(i));
+            putVarLong(segments.getSize(i));
+            endRecord(record);
+        }
+        flush();
+    }
+
+    /**
+     * Writes a segment: its clients, the communications it holds, their
+     * terminals and the index of the communications by key.
+     *
+     * @param segment the segment, as copied
+     * @throws IOException if the channel fails or a record is too large
+     */
+    void writeSegment(SegmentCopy segment) throws IOException {
+        buffer.putInt(Snapshot.SEGMENT_MAGIC);
+        buffer.putShort(Snapshot.VERSION);
+
+        int record = beginRecord();
+        putVarInt(segment.clients.size());
+        putVarInt(segment.terminals.size());
+        putVarInt(segment.communications.size());
+        endRecord(record);
+
+        for (ClientCopy client : segment.clients)
+            writeClient(client);
+
+        communicationKeys = new long[segment.communications.size()];
+        communicationOffsets = new long[segment.communications.size()];
+        int i = 0;
+        for (CommunicationCopy communication : segment.communications) {
+            communicationKeys[i] = communication.key;
+            communicationOffsets[i++] = writeCommunication(communication);
+        }
+
+        long firstTerminal = -1;
+        for (TerminalCopy terminal : segment.terminals) {
+            long offset = writeTerminal(terminal);
+            if (firstTerminal < 0)
+                firstTerminal = offset;
+        }
+        if (firstTerminal < 0)
+            firstTerminal = offset();
+
+        record = beginRecord();
+        for (i = 0; i < communicationKeys.length; i++) {
+            putLong(communicationKeys[i]);
+            putLong(communicationOffsets[i]);
+        }
+        long index = endRecord(record);
+
+        int trailer = buffer.position();
+        putLong(firstTerminal);
+        putLong(index);
+        putInt(Snapshot.SEGMENT_MAGIC);
+        keepInRegion(trailer);
+        flush();
+    }
+
+    /**
+     * @return the communications made by the terminals, and those they
+     *         received that never made it to the network-wide log, because
+     *         their sender failed to start them; in key order
+     */
+    private static List<Communication> heldCommunications(List<Terminal> terminals) {
+        List<Communication> held = new ArrayList<>();
+        for (Terminal terminal : terminals) {
+            held.addAll(terminal.getMadeCommunications());
+            for (Communication communication : terminal.getReceivedCommunications())
+                if (!communication.getSender().hasMade(communication))
+                    held.add(communication);
+        }
+        held.sort(Comparator.comparingLong(Communication::getKey));
+        return held;
+    }
+
+    /**
+     * @return the segment holding a communication, see
+     *         {@link #heldCommunications(List)}
+     */
+    private static int segmentOf(Segments segments, Communication communication) {
+        Terminal sender = communication.getSender();
+        return segments.segmentOf(sender.hasMade(communication) ? sender.getOwner()
+                : communication.getReceiver().getOwner());
+    }
+
+    private void writeClient(ClientCopy client) throws IOException {
+        int record = beginRecord();
+        putString(client.key);
+        putString(client.name);
+        putInt(client.nif);
+        putByte(client.type);
+        putByte(client.notifications ? 1 : 0);
+        putVarInt(client.textCount);
+        putVarInt(client.videoCount);
+        putDouble(client.paid);
+        putDouble(client.debt);
+
+        if (client.plan == null) {
+            putByte(Snapshot.BASE_PLAN);
+        } else {
+            putByte(Snapshot.SERIALIZED_PLAN);
+            putVarInt(client.plan.length);
+            ensure(client.plan.length);
+            buffer.put(client.plan);
+        }
+        putByte(Snapshot.IN_APP_DELIVERY);
+
+        putVarInt(client.terminals.length);
+        for (int terminal : client.terminals)
+            putVarInt(terminal);
+
+        putVarInt(client.notificationKinds.length);
+        for (int i = 0; i < client.notificationKinds.length; i++) {
+            putByte(client.notificationKinds[i]);
+            putVarInt(client.notificationIds[i]);
+        }
+        endRecord(record);
+    }
+
+    /**
+     * @return the offset of the record
+     */
+    private long writeTerminal(TerminalCopy terminal) throws IOException {
+        int record = beginRecord();
+        putVarInt(terminal.id);
+        putByte(terminal.kind);
+        putVarInt(terminal.owner);
+        putByte(terminal.state);
+        putByte(terminal.savedState);
+        putDouble(terminal.paid);
+        putDouble(terminal.debt);
+
+        putVarInt(terminal.friends.length);
+        for (int friend : terminal.friends)
+            putVarInt(friend);
+
+        putObservers(terminal.textObservers);
+        putObservers(terminal.interactiveObservers);
+
+        putVarLong(terminal.current);
+        if (terminal.current != 0)
+            putVarInt(terminal.currentSegment);
+
+        putVarInt(terminal.made.length);
+        putVarInt(terminal.received.length);
+
+        // made communications are held by this segment, by key and offset
+        long key = 0;
+        long offset = 0;
+        for (long made : terminal.made) {
+            long position = communicationOffsets[Arrays.binarySearch(communicationKeys, made)];
+            putVarLong(made - key);
+            putVarLong(position - offset);
+            key = made;
+            offset = position;
+        }
+        // received ones by any, by key and segment
+        key = 0;
+        for (int i = 0; i < terminal.received.length; i++) {
+            putVarLong(terminal.received[i] - key);
+            putVarInt(terminal.receivedSegments[i]);
+            key = terminal.received[i];
+        }
+        return endRecord(record);
+    }
+
+    /**
+     * @return the offset of the record
+     */
+    private long writeCommunication(CommunicationCopy communication) throws IOException {
+        int record = beginRecord();
+        putVarLong(communication.key);
+        putByte(communication.kind);
+        putVarInt(communication.sender);
+        putVarInt(communication.receiver);
+        putByte(communication.flags);
+        putInt(communication.units);
+        putDouble(communication.price);
+        if (communication.kind == Snapshot.TEXT)
+            putInlineString(communication.message);
+        return endRecord(record);
+    }
+
+    /** Writes the observers by key, since they may belong to other segments */
+    private void putObservers(String[] keys) {
+        putVarInt(keys.length);
+        for (String key : keys)
+            putString(key);
+    }
+
+    /**
+     * @return the keys of the observers, all of them clients
+     * @throws NotSerializableException if one of them is not a client
+     */
+    private static String[] observerKeys(Collection<Observer> observers) throws NotSerializableException {
+        String[] keys = new String[observers.size()];
+        int i = 0;
+        for (Observer observer : observers) {
+            if (!(observer instanceof Client))
+                throw new NotSerializableException(observer.getClass().getName());
+            keys[i++] = ((Client) observer).getKey();
+        }
+        return keys;
+    }
+
+    private static byte stateCode(Terminal terminal, TerminalState state) {
+        if (state == null)
+            return Snapshot.NO_STATE;
+        if (state == terminal.getBusyState())
+            return Snapshot.BUSY;
+        if (state == terminal.getOffState())
+            return Snapshot.OFF;
+        if (state == terminal.getSilenceState())
+            return Snapshot.SILENCE;
+        return Snapshot.IDLE;
+    }
+
+    private static byte notificationKind(Notification notification) {
+        if (notification instanceof OffToIdleNotification)
+            return Snapshot.OFF_TO_IDLE;
+        if (notification instanceof OffToSilentNotification)
+            return Snapshot.OFF_TO_SILENT;
+        if (notification instanceof BusyToIdleNotification)
+            return Snapshot.BUSY_TO_IDLE;
+        return Snapshot.SILENT_TO_IDLE;
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reserves room for the length of a record.
+     *
+     * @return the position of the length
+     */
+    private int beginRecord() {
+        ensure(4);
+        int start = buffer.position();
+        buffer.putInt(0);
+        return start;
+    }
+
+    /**
+     * Patches the length of a record, and flushes the records buffered if
+     * there are enough.
+     *
+     * @return the offset of the record
+     */
+    private long endRecord(int start) throws IOException {
+        buffer.putInt(start, buffer.position() - start - 4);
+        long offset = keepInRegion(start);
+        if (buffer.position() >= FLUSH_SIZE)
+            flush();
+        return offset;
+    }
+
+    /**
+     * Moves the bytes written since a position to the start of the next region
+     * if they would cross into it, zeroing the gap.
+     *
+     * @return the offset of the bytes
+     */
+    private long keepInRegion(int start) throws IOException {
+        long offset = flushed + start;
+        long end = flushed + buffer.position();
+        if (SnapshotFile.regionStart(offset) == SnapshotFile.regionStart(end - 1))
+            return offset;
+        int length = buffer.position() - start;
+        if (length > Snapshot.REGION_SIZE)
+            throw new IOException("Record of " + length + " bytes is too large for a snapshot");
+        byte[] record = new byte[length];
+        buffer.get(start, record);
+        buffer.position(start);
+        flush();
+        long gap = Snapshot.REGION_SIZE - offset % Snapshot.REGION_SIZE;
+        ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(gap, FLUSH_SIZE));
+        while (gap > 0) {
+            zeros.clear().limit((int) Math.min(gap, zeros.capacity()));
+            while (zeros.hasRemaining())
+                gap -= channel.write(zeros);
+        }
+        flushed = SnapshotFile.regionStart(end - 1);
+        buffer.put(record);
+        return flushed;
+    }
+
+    private long offset() {
+        return flushed + buffer.position();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            flushed += channel.write(buffer);
+        buffer.clear();
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes)
+            return;
+        int capacity = buffer.capacity();
+        while (capacity - buffer.position() < bytes)
+            capacity *= 2;
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        grown.put(buffer.flip());
+        buffer = grown;
+    }
+
+    private void putByte(int value) {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    private void putInt(int value) {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    private void putLong(long value) {
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    private void putDouble(double value) {
+        ensure(8);
+        buffer.putDouble(value);
+    }
+
+    /** Writes a non-negative int in 7-bit groups, low group first */
+    private void putVarInt(int value) {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /** Writes a non-negative long in 7-bit groups, low group first */
+    private void putVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /** Writes a string in full, not interned */
+    private void putInlineString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarInt(bytes.length);
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /** Writes a reference to an interned string, defining it on first use */
+    private void putString(String value) {
+        Integer reference = strings.get(value);
+        if (reference != null) {
+            putVarInt(reference);
+            return;
+        }
+        strings.put(value, strings.size() + 1);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarInt(0);
+        putVarInt(bytes.length);
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+}
@@ -0,0 +1,297 @@
+package prr;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import prr.exceptions.ClientExistsException;
+import prr.exceptions.InvalidEntryException;
+import prr.exceptions.UnrecognizedEntryException;
+import prr.terminals.FancyTerminal;
+import prr.util.CollatedKey;
+import prr.util.IntHashSet;
+import prr.util.TerminalKey;
+
+/**
+ * Import pipeline that parses the file in chunks on all cores and then applies
+ * the records in stages: clients, terminals, friends and finally
+ * communications.
+ *
+ * The outcome is the same as the sequential {@link Network#importFile(String)}:
+ * a validation pass over the parsed records, in file order, finds the first
+ * entry that the sequential import would reject. Every record before it is
+ * applied in stages, and that entry is then imported on its own, raising the
+ * same exception with the network in the same state.
+ */
+class StagedImport {
+
+    /** Number of lines parsed by each task */
+    private static final int CHUNK_SIZE = 1 << 14;
+
+    private static final int CLIENT = 0;
+    private static final int TERMINAL = 1;
+    private static final int FRIENDS = 2;
+    private static final int COMMUNICATION = 3;
+    private static final int UNRECOGNIZED = 4;
+
+    /**
+     * A parsed line, with the values its validation needs computed by the
+     * parsing task.
+     */
+    private static class Record {
+        private final String[] fields;
+        private final int kind;
+
+        /** Collated key of the client */
+        private CollatedKey clientKey;
+        private int nif;
+        private boolean validNif;
+
+        /** Identity of the terminal, of the terminal whose friends are listed, or of the sender */
+        private int terminalId;
+        private String[] friendKeys;
+
+        /** Identity of the receiver, and whether the units of an interactive communication are valid */
+        private int receiverId;
+        private boolean validUnits;
+
+        Record(String line) {
+            fields = ImportParser.split(line, ImportParser.FIELD_SEPARATOR);
+            kind = parse();
+        }
+
+        private int parse() {
+            if (fields.length == 0)
+                return UNRECOGNIZED;
+            switch (fields[0]) {
+                case "CLIENT":
+                    if (fields.length != 4)
+                        return UNRECOGNIZED;
+                    // collated here, on the parsing thread
+                    clientKey = new CollatedKey(fields[1]).prepare();
+                    try {
+                        nif = Integer.parseInt(fields[3]);
+                        validNif = true;
+                    } catch (NumberFormatException e) {
+                        validNif = false;
+                    }
+                    return CLIENT;
+                case "BASIC":
+                case "FANCY":
+                    if (fields.length != 4 || !Network.isTerminalStateLabel(fields[3]))
+                        return UNRECOGNIZED;
+                    terminalId = TerminalKey.parse(fields[1]);
+                    return TERMINAL;
+                case "FRIENDS":
+                    if (fields.length != 3)
+                        return UNRECOGNIZED;
+                    terminalId = TerminalKey.parse(fields[1]);
+                    friendKeys = ImportParser.split(fields[2], ImportParser.LIST_SEPARATOR);
+                    return FRIENDS;
+                case "TEXT":
+                case "VOICE":
+                case "VIDEO":
+                    if (fields.length != 6 || !Network.isPaymentLabel(fields[4])
+                            || !Network.isFriendshipLabel(fields[5]))
+                        return UNRECOGNIZED;
+                    terminalId = TerminalKey.parse(fields[1]);
+                    receiverId = TerminalKey.parse(fields[2]);
+                    try {
+                        validUnits = fields[0].equals("TEXT") || Integer.parseInt(fields[3]) >= 0;
+                    } catch (NumberFormatException e) {
+                        validUnits = false;
+                    }
+                    return COMMUNICATION;
+                default:
+                    return UNRECOGNIZED;
+            }
+        }
+    }
+
+    private final Network network;
+
+    private final ImportBatch batch;
+
+    /** Keys of the clients declared by the validated records */
+    private final Set<String> clientKeys = new HashSet<>();
+
+    /** Collated keys of the clients declared by the validated records */
+    private final Set<CollatedKey> clientSortKeys = new HashSet<>();
+
+    /** Identities of the terminals declared by the validated records, and of the fancy ones */
+    private final IntHashSet terminalIds = new IntHashSet();
+    private final IntHashSet fancyIds = new IntHashSet();
+
+    /**
+     * @param network the network to import into
+     * @param batch   the import the communications in the file belong to
+     */
+    StagedImport(Network network, ImportBatch batch) {
+        this.network = network;
+        this.batch = batch;
+    }
+
+    /**
+     * Read text input file and create corresponding domain entities.
+     *
+     * @param filename name of the text input file
+     * @return the number of lines imported and the time taken
+     * @throws UnrecognizedEntryException if some entry is not correct
+     * @throws InvalidEntryException      if some entry doesn't respect the rules
+     *                                    (repeated keys, invalid keys, etc.)
+     * @throws IOException                if there is an IO error while processing
+     *                                    the text file
+     */
+    ImportStatistics importFile(String filename) throws UnrecognizedEntryException, InvalidEntryException,
+            IOException {
+        long start = System.nanoTime();
+        List<Record> records = new ArrayList<>();
+        long lines;
+
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try (ImportParser parser = new ImportParser(filename)) {
+            List<Future<Record[]>> chunks = new ArrayList<>();
+            List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+            String line;
+            while ((line = parser.nextLine()) != null) {
+                chunk.add(line);
+                if (chunk.size() == CHUNK_SIZE) {
+                    chunks.add(pool.submit(parseTask(chunk)));
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+            chunks.add(pool.submit(parseTask(chunk)));
+            lines = parser.getLineCount();
+
+            for (Future<Record[]> parsed : chunks)
+                for (Record record : parsed.get())
+                    records.add(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        int firstError = findFirstError(records);
+        apply(records, firstError);
+
+        // The sequential import rejects this entry too, with the network as it is now
+        for (int i = firstError; i < records.size(); i++)
+            network.importObject(records.get(i).fields, batch);
+
+        return new ImportStatistics(lines, System.nanoTime() - start);
+    }
+
+    private static Callable<Record[]> parseTask(List<String> lines) {
+        return () -> {
+            Record[] records = new Record[lines.size()];
+            for (int i = 0; i < records.length; i++)
+                records[i] = new Record(lines.get(i));
+            return records;
+        };
+    }
+
+    /**
+     * Checks the records in file order against the network and the records
+     * before them, without changing anything.
+     *
+     * @param records the parsed records
+     * @return the index of the first record the sequential import would reject,
+     *         or the number of records if there is none
+     */
+    private int findFirstError(List<Record> records) {
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            switch (record.kind) {
+                case CLIENT:
+                    if (!record.validNif || clientSortKeys.contains(record.clientKey)
+                            || network.containsClient(record.clientKey))
+                        return i;
+                    clientKeys.add(record.fields[1]);
+                    clientSortKeys.add(record.clientKey);
+                    break;
+                case TERMINAL:
+                    if (record.terminalId < 0 || hasTerminal(record.terminalId) || !hasClient(record.fields[2]))
+                        return i;
+                    terminalIds.add(record.terminalId);
+                    if (record.fields[0].equals("FANCY"))
+                        fancyIds.add(record.terminalId);
+                    break;
+                case FRIENDS:
+                    if (!hasTerminal(record.terminalId))
+                        return i;
+                    for (String friend : record.friendKeys)
+                        if (!hasTerminal(TerminalKey.parse(friend)))
+                            return i;
+                    break;
+                case COMMUNICATION:
+                    if (!hasTerminal(record.terminalId) || !hasTerminal(record.receiverId) || !record.validUnits)
+                        return i;
+                    if (!record.fields[0].equals("TEXT") && record.terminalId == record.receiverId)
+                        return i;
+                    if (record.fields[0].equals("VIDEO") && !(isFancy(record.terminalId) && isFancy(record.receiverId)))
+                        return i;
+                    break;
+                default:
+                    return i;
+            }
+        }
+        return records.size();
+    }
+
+    /** Resolves a key the way {@link Network#findClient(String)} does */
+    private boolean hasClient(String key) {
+        if (clientKeys.contains(key) || network.findClient(key) != null)
+            return true;
+        return !clientSortKeys.isEmpty() && clientSortKeys.contains(new CollatedKey(key));
+    }
+
+    private boolean hasTerminal(int id) {
+        return id >= 0 && (terminalIds.contains(id) || network.findTerminal(id) != null);
+    }
+
+    private boolean isFancy(int id) {
+        return fancyIds.contains(id) || network.findTerminal(id) instanceof FancyTerminal;
+    }
+
+    /**
+     * Applies the records before the given index: clients first, then
+     * terminals, then friends, then communications, each stage in file order.
+     *
+     * @param records the parsed records
+     * @param end     index of the first record not to apply
+     * @throws UnrecognizedEntryException if some entry is not correct
+     * @throws InvalidEntryException      if some entry doesn't respect the rules
+     */
+    private void apply(List<Record> records, int end) throws UnrecognizedEntryException, InvalidEntryException {
+        for (int i = 0; i < end; i++) {
+            Record record = records.get(i);
+            if (record.kind == CLIENT) {
+                try {
+                    network.registerClient(record.clientKey, record.fields[2], record.nif);
+                } catch (ClientExistsException e) {
+                    throw new InvalidEntryException(ImportParser.join(record.fields), e);
+                }
+            }
+        }
+        for (int i = 0; i < end; i++)
+            if (records.get(i).kind == TERMINAL)
+                network.importTerminal(records.get(i).fields);
+        for (int i = 0; i < end; i++)
+            if (records.get(i).kind == FRIENDS)
+                network.importFriends(records.get(i).fields);
+        for (int i = 0; i < end; i++)
+            if (records.get(i).kind == COMMUNICATION)
+                network.importCommunication(records.get(i).fields, batch);
+    }
+}
@@ -1,13 +1,17 @@
 package prr.clients;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import prr.Network;
 import prr.terminals.Terminal;
+import prr.util.CollatedKey;
 import prr.observers.Observer;
 import prr.visitors.Printable;
 import prr.visitors.Printer;
@@ -15,7 +19,6 @@ import prr.clients.types.ClientType;
 import prr.clients.types.Gold;
 import prr.clients.types.Normal;
 import prr.clients.types.Platinum;
-import prr.communications.Communication;
 import prr.notifications.Notification;
 import prr.notifications.DeliveryMethod;
 import prr.notifications.InAppNotifications;
@@ -25,11 +28,17 @@ public class Client implements Serializable, Printable, Observer {
     @Serial
     private static final long serialVersionUID = 202217101700L;
 
+    /** Tolerance used when comparing the aggregate totals with a recomputation */
+    private static final double BALANCE_EPSILON = 1e-6;
+
     private String name;
     private final int nif;
     private final String key;
+    private final CollatedKey sortKey;
+    private final Network network;
     private PriceCalculator calculator = new BasePlan();
-    private Queue<Notification> notifications = new LinkedList<>();
+    /** Delivered notifications, which an asynchronous delivery adds without locks */
+    private Queue<Notification> notifications = new ConcurrentLinkedQueue<>();
     private ArrayList<Terminal> terminals = new ArrayList<>();
     private final ClientType normal = new Normal(this);
     private final ClientType gold = new Gold(this);
@@ -40,10 +49,20 @@ public class Client implements Serializable, Printable, Observer {
     private int textCount = 0;
     private int videoCount = 0;
 
-    public Client(String name, String key, int nif) {
+    /** Aggregate of the running totals of every terminal owned by this client */
+    private double paid = 0;
+    private double debt = 0;
+
+    public Client(String name, String key, int nif, Network network) {
+        this(name, new CollatedKey(key), nif, network);
+    }
+
+    public Client(String name, CollatedKey sortKey, int nif, Network network) {
         this.name = name;
-        this.key = key;
+        this.key = sortKey.getKey();
+        this.sortKey = sortKey;
         this.nif = nif;
+        this.network = network;
     }
 
     public void setType(ClientType type) {
@@ -94,6 +113,14 @@ public class Client implements Serializable, Printable, Observer {
         return this.key;
     }
 
+    public CollatedKey getSortKey() {
+        return sortKey;
+    }
+
+    public Network getNetwork() {
+        return network;
+    }
+
     public int getNif() {
         return nif;
     }
@@ -107,38 +134,71 @@ public class Client implements Serializable, Printable, Observer {
     }
 
     public double getDebt() {
-        double debt = 0;
-        for (Terminal terminal : this.terminals)
-            debt += terminal.getDebt();
         return debt;
     }
 
     public double getPaid() {
-        double paid = 0;
-        for (Terminal terminal : this.terminals)
-            paid += terminal.getPaid();
         return paid;
     }
 
     public double getBalance() {
-        double balance = 0;
-        for (Terminal terminal : this.terminals)
-            balance += terminal.getBalance();
-        return balance;
-    }
-
-    public Collection<Communication> getReceivedCommunications() {
-        Collection<Communication> communications = new ArrayList<>();
-        for (Terminal terminal : terminals)
-            (terminal.getReceivedCommunications()).forEach(communications::add);
-        return communications;
-    }
-
-    public Collection<Communication> getMadeCommunications() {
-        Collection<Communication> communications = new ArrayList<>();
-        for (Terminal terminal : terminals)
-            (terminal.getMadeCommunications()).forEach(communications::add);
-        return communications;
+        return paid - debt;
+    }
+
+    public DeliveryMethod getDeliveryMethod() {
+        return deliveryMethod;
+    }
+
+    public void setDeliveryMethod(DeliveryMethod deliveryMethod) {
+        this.deliveryMethod = deliveryMethod;
+    }
+
+    /**
+     * Restores the counters and totals of a client read back from a snapshot,
+     * without propagating anything to the network.
+     *
+     * @param textCount  consecutive text communications
+     * @param videoCount consecutive video communications
+     * @param paid       paid total
+     * @param debt       debt total
+     */
+    public void restoreCounters(int textCount, int videoCount, double paid, double debt) {
+        this.textCount = textCount;
+        this.videoCount = videoCount;
+        this.paid = paid;
+        this.debt = debt;
+    }
+
+    /**
+     * Applies a change reported by one of this client's terminals to the
+     * aggregate totals and propagates it to the network.
+     *
+     * @param terminal the terminal whose totals changed
+     * @param paid     amount to add to the paid total
+     * @param debt     amount to add to the debt total
+     */
+    public void updateBalance(Terminal terminal, double paid, double debt) {
+        this.paid += paid;
+        this.debt += debt;
+        network.updateBalance(this, terminal, paid, debt);
+    }
+
+    /**
+     * Checks the aggregate totals against the sum of the terminals' totals, and
+     * each terminal against its own communications.
+     *
+     * @return true if every total matches its recomputed value
+     */
+    public boolean isBalanceConsistent() {
+        double terminalsPaid = 0;
+        double terminalsDebt = 0;
+        for (Terminal terminal : this.terminals) {
+            if (!terminal.isBalanceConsistent())
+                return false;
+            terminalsPaid += terminal.getPaid();
+            terminalsDebt += terminal.getDebt();
+        }
+        return Math.abs(paid - terminalsPaid) <= BALANCE_EPSILON && Math.abs(debt - terminalsDebt) <= BALANCE_EPSILON;
     }
 
     public Collection<Terminal> getTerminals() {
@@ -190,6 +250,10 @@ public class Client implements Serializable, Printable, Observer {
         notifications.add(notification);
     }
 
+    public void queueNotifications(Collection<Notification> notifications) {
+        this.notifications.addAll(notifications);
+    }
+
     @Override
     public void update(Notification notification) {
         if (activeNotifications)
@@ -201,4 +265,11 @@ public class Client implements Serializable, Printable, Observer {
         visitor.visit(this);
     }
 
+    @Serial
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        // Older files hold the notifications in a list
+        notifications = new ConcurrentLinkedQueue<>(notifications);
+    }
+
 }
@@ -11,7 +11,7 @@ public abstract class Communication implements Serializable, Printable {
     @Serial
     private static final long serialVersionUID = 202217101700L;
 
-    private final int key;
+    private final long key;
     private final Terminal sender;
     private final Terminal receiver;
     private boolean paid = false;
@@ -19,14 +19,14 @@ public abstract class Communication implements Serializable, Printable {
     private int units;
     private double price = 0;
 
-    public Communication(int key, Terminal sender, Terminal receiver, int units) {
+    public Communication(long key, Terminal sender, Terminal receiver, int units) {
         this.key = key;
         this.sender = sender;
         this.receiver = receiver;
         this.units = units;
     }
 
-    public int getKey() {
+    public long getKey() {
         return key;
     }
 
@@ -34,16 +34,16 @@ public abstract class Communication implements Serializable, Printable {
         return sender;
     }
 
-    public String getSenderKey() {
-        return sender.getKey();
+    public int getSenderId() {
+        return sender.getId();
     }
 
     public Terminal getReceiver() {
         return receiver;
     }
 
-    public String getReceiverKey() {
-        return receiver.getKey();
+    public int getReceiverId() {
+        return receiver.getId();
     }
 
     public double getPrice() {
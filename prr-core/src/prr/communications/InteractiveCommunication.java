@@ -4,14 +4,16 @@ import prr.terminals.Terminal;
 
 public abstract class InteractiveCommunication extends Communication {
 
-    public InteractiveCommunication(int key, Terminal sender, Terminal receiver) {
+    public InteractiveCommunication(long key, Terminal sender, Terminal receiver) {
         super(key, sender, receiver, 0);
     }
 
     public double endCommunication(int duration, boolean isFriend) {
+        double previousPrice = getPrice();
         this.finish();
         this.setUnits(duration);
         this.updatePrice(isFriend);
+        getSender().updateBalance(0, getPrice() - previousPrice);
         return getPrice();
     }
 
@@ -8,13 +8,17 @@ public class TextCommunication extends Communication {
 
     private final String message;
 
-    public TextCommunication(int key, Terminal sender, Terminal receiver, String message, boolean isFriend) {
+    public TextCommunication(long key, Terminal sender, Terminal receiver, String message, boolean isFriend) {
         super(key, sender, receiver, message.length());
         this.message = message;
         updatePrice(isFriend);
         finish();
     }
 
+    public String getMessage() {
+        return message;
+    }
+
     @Override
     public void accept(Printer visitor) {
         visitor.visit(this);
@@ -5,7 +5,7 @@ import prr.terminals.Terminal;
 import prr.visitors.Printer;
 
 public class VideoCommunication extends InteractiveCommunication {
-    public VideoCommunication(int key, Terminal sender, Terminal receiver) {
+    public VideoCommunication(long key, Terminal sender, Terminal receiver) {
         super(key, sender, receiver);
     }
 
@@ -5,7 +5,7 @@ import prr.terminals.Terminal;
 import prr.visitors.Printer;
 
 public class VoiceCommunication extends InteractiveCommunication {
-    public VoiceCommunication(int key, Terminal sender, Terminal receiver) {
+    public VoiceCommunication(long key, Terminal sender, Terminal receiver) {
         super(key, sender, receiver);
     }
 
@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.clients.BasePlan} in files saved by the original release.
+ */
+public class BasePlan extends PriceCalculator {
+
+    @Serial
+    private static final long serialVersionUID = 202222102220L;
+}
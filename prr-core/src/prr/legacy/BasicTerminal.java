@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.terminals.BasicTerminal} in files saved by the original release.
+ */
+public class BasicTerminal extends Terminal {
+
+    @Serial
+    private static final long serialVersionUID = 4746538203607021792L;
+}
@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.terminals.states.Busy} in files saved by the original release.
+ */
+public class Busy extends TerminalState {
+
+    @Serial
+    private static final long serialVersionUID = -3714724025043877862L;
+}
@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.notifications.BusyToIdleNotification} in files saved by the original release.
+ */
+public class BusyToIdleNotification extends Notification {
+
+    @Serial
+    private static final long serialVersionUID = 4862336601772553888L;
+}
@@ -0,0 +1,67 @@
+package prr.legacy;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Layout of {@code prr.clients.Client} in files saved by the original release.
+ * Its price plan and delivery method were always the default ones.
+ */
+public class Client implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 202217101700L;
+
+    private String name;
+    private int nif;
+    private String key;
+    private LinkedList<Notification> notifications;
+    private ArrayList<Terminal> terminals;
+    private ClientType type;
+    private boolean activeNotifications;
+    private int textCount;
+    private int videoCount;
+
+    public String getName() {
+        return name;
+    }
+
+    public int getNif() {
+        return nif;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Queue<Notification> getNotifications() {
+        return notifications;
+    }
+
+    /**
+     * @return the terminals of the client, in the order they were added
+     */
+    public List<Terminal> getTerminals() {
+        return terminals;
+    }
+
+    public ClientType getType() {
+        return type;
+    }
+
+    public boolean hasActiveNotifications() {
+        return activeNotifications;
+    }
+
+    public int getTextCount() {
+        return textCount;
+    }
+
+    public int getVideoCount() {
+        return videoCount;
+    }
+}
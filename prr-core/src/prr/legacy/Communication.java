@@ -0,0 +1,50 @@
+package prr.legacy;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Layout of {@code prr.communications.Communication} in files saved by the
+ * original release.
+ */
+public abstract class Communication implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 202217101700L;
+
+    private int key;
+    private Terminal sender;
+    private Terminal receiver;
+    private boolean paid;
+    private boolean finished;
+    private int units;
+    private double price;
+
+    public int getKey() {
+        return key;
+    }
+
+    public Terminal getSender() {
+        return sender;
+    }
+
+    public Terminal getReceiver() {
+        return receiver;
+    }
+
+    public boolean isPaid() {
+        return paid;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public int getUnits() {
+        return units;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+}
@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.terminals.FancyTerminal} in files saved by the original release.
+ */
+public class FancyTerminal extends Terminal {
+
+    @Serial
+    private static final long serialVersionUID = 2281844520914732710L;
+}
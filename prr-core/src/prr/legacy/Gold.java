@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.clients.types.Gold} in files saved by the original release.
+ */
+public class Gold extends ClientType {
+
+    @Serial
+    private static final long serialVersionUID = 3435699434213102784L;
+}
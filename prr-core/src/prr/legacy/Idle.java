@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.terminals.states.Idle} in files saved by the original release.
+ */
+public class Idle extends TerminalState {
+
+    @Serial
+    private static final long serialVersionUID = 3977825205084086536L;
+}
@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.communications.InteractiveCommunication} in files saved by the original release.
+ */
+public abstract class InteractiveCommunication extends Communication {
+
+    @Serial
+    private static final long serialVersionUID = -2801136365969665038L;
+}
@@ -0,0 +1,34 @@
+package prr.legacy;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.TreeMap;
+
+/**
+ * Layout of {@code prr.Network} in files saved by the original release.
+ */
+public class Network implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 202208091753L;
+
+    private TreeMap<String, Client> clients;
+    private TreeMap<String, Terminal> terminals;
+    private int communicationKey;
+
+    public Collection<Client> getClients() {
+        return clients.values();
+    }
+
+    public Collection<Terminal> getTerminals() {
+        return terminals.values();
+    }
+
+    /**
+     * @return key of the last communication created
+     */
+    public int getCommunicationKey() {
+        return communicationKey;
+    }
+}
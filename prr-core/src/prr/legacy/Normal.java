@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.clients.types.Normal} in files saved by the original release.
+ */
+public class Normal extends ClientType {
+
+    @Serial
+    private static final long serialVersionUID = 2328982098079823305L;
+}
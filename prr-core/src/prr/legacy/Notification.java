@@ -0,0 +1,20 @@
+package prr.legacy;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Layout of {@code prr.notifications.Notification} in files saved by the
+ * original release.
+ */
+public abstract class Notification implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = -1943331311352981279L;
+
+    private String terminalId;
+
+    public String getTerminalId() {
+        return terminalId;
+    }
+}
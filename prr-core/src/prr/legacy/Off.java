@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.terminals.states.Off} in files saved by the original release.
+ */
+public class Off extends TerminalState {
+
+    @Serial
+    private static final long serialVersionUID = 3684960194120027763L;
+}
@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.notifications.OffToIdleNotification} in files saved by the original release.
+ */
+public class OffToIdleNotification extends Notification {
+
+    @Serial
+    private static final long serialVersionUID = 6369104542768646141L;
+}
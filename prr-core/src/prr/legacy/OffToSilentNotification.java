@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.notifications.OffToSilentNotification} in files saved by the original release.
+ */
+public class OffToSilentNotification extends Notification {
+
+    @Serial
+    private static final long serialVersionUID = 8574754857108389150L;
+}
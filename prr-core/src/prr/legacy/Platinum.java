@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.clients.types.Platinum} in files saved by the original release.
+ */
+public class Platinum extends ClientType {
+
+    @Serial
+    private static final long serialVersionUID = -5118482597970457625L;
+}
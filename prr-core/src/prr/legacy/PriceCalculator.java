@@ -0,0 +1,13 @@
+package prr.legacy;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Layout of {@code prr.clients.PriceCalculator} in files saved by the original release.
+ */
+public abstract class PriceCalculator implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = -7079852240400705800L;
+}
@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.terminals.states.Silence} in files saved by the original release.
+ */
+public class Silence extends TerminalState {
+
+    @Serial
+    private static final long serialVersionUID = 1582751002518922060L;
+}
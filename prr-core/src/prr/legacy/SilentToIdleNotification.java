@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.notifications.SilentToIdleNotification} in files saved by the original release.
+ */
+public class SilentToIdleNotification extends Notification {
+
+    @Serial
+    private static final long serialVersionUID = 4732013732216491578L;
+}
@@ -0,0 +1,81 @@
+package prr.legacy;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Layout of {@code prr.terminals.Terminal} in files saved by the original
+ * release. Its observers were always clients.
+ */
+public abstract class Terminal implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 202208091753L;
+
+    private String key;
+    private Client owner;
+    private TreeMap<Integer, Communication> receivedCommunications;
+    private TreeMap<Integer, Communication> madeCommunications;
+    private ArrayList<String> friends;
+    private ArrayList<Client> textCommunicationObservers;
+    private ArrayList<Client> interactiveCommunicationObservers;
+    private InteractiveCommunication currentCommunication;
+    private TerminalState savedState;
+    private TerminalState state;
+
+    public String getKey() {
+        return key;
+    }
+
+    public Client getOwner() {
+        return owner;
+    }
+
+    /**
+     * @return the communications received, by key
+     */
+    public SortedMap<Integer, Communication> getReceivedCommunications() {
+        return receivedCommunications;
+    }
+
+    /**
+     * @return the communications made, by key
+     */
+    public SortedMap<Integer, Communication> getMadeCommunications() {
+        return madeCommunications;
+    }
+
+    /**
+     * @return the keys of the friends of the terminal
+     */
+    public List<String> getFriends() {
+        return friends;
+    }
+
+    public List<Client> getTextCommunicationObservers() {
+        return textCommunicationObservers;
+    }
+
+    public List<Client> getInteractiveCommunicationObservers() {
+        return interactiveCommunicationObservers;
+    }
+
+    public InteractiveCommunication getCurrentCommunication() {
+        return currentCommunication;
+    }
+
+    /**
+     * @return the state to go back to after a communication, or null
+     */
+    public TerminalState getSavedState() {
+        return savedState;
+    }
+
+    public TerminalState getState() {
+        return state;
+    }
+}
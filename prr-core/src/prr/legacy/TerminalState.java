@@ -0,0 +1,13 @@
+package prr.legacy;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Layout of {@code prr.terminals.states.TerminalState} in files saved by the original release.
+ */
+public abstract class TerminalState implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 202217101700L;
+}
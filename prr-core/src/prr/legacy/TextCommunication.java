@@ -0,0 +1,19 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.communications.TextCommunication} in files saved by the
+ * original release.
+ */
+public class TextCommunication extends Communication {
+
+    @Serial
+    private static final long serialVersionUID = -2281030632408333933L;
+
+    private String message;
+
+    public String getMessage() {
+        return message;
+    }
+}
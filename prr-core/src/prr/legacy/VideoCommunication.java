@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.communications.VideoCommunication} in files saved by the original release.
+ */
+public class VideoCommunication extends InteractiveCommunication {
+
+    @Serial
+    private static final long serialVersionUID = 5970309744089007058L;
+}
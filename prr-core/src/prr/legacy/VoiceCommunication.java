@@ -0,0 +1,12 @@
+package prr.legacy;
+
+import java.io.Serial;
+
+/**
+ * Layout of {@code prr.communications.VoiceCommunication} in files saved by the original release.
+ */
+public class VoiceCommunication extends InteractiveCommunication {
+
+    @Serial
+    private static final long serialVersionUID = -1008323508220030831L;
+}
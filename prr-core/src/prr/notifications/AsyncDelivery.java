@@ -0,0 +1,48 @@
+package prr.notifications;
+
+import java.io.ObjectStreamException;
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Delivery method handing notifications to a {@link NotificationQueue}, which
+ * passes them on to the client's own delivery method in the background.
+ *
+ * It is serialized as its target, so a client read back delivers its
+ * notifications straight to it.
+ */
+public class AsyncDelivery implements DeliveryMethod, Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 202210291200L;
+
+    private final transient DeliveryMethod target;
+
+    private final transient NotificationQueue queue;
+
+    /**
+     * @param target the delivery method the notifications end up in
+     * @param queue  the queue holding them until then
+     */
+    public AsyncDelivery(DeliveryMethod target, NotificationQueue queue) {
+        this.target = target;
+        this.queue = queue;
+    }
+
+    public DeliveryMethod getTarget() {
+        return target;
+    }
+
+    @Override
+    public void deliver(Notification notification) {
+        if (queue != null)
+            queue.submit(target, notification);
+        else
+            target.deliver(notification);
+    }
+
+    @Serial
+    private Object writeReplace() throws ObjectStreamException {
+        return target;
+    }
+}
@@ -3,7 +3,7 @@ package prr.notifications;
 import prr.visitors.Printer;
 
 public class BusyToIdleNotification extends Notification {
-    public BusyToIdleNotification(String terminalId) {
+    public BusyToIdleNotification(int terminalId) {
         super(terminalId);
     }
     
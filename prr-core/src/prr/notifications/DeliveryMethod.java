@@ -1,5 +1,17 @@
 package prr.notifications;
 
+import java.util.Collection;
+
 public interface DeliveryMethod {
     public void deliver(Notification notifications);
+
+    /**
+     * Delivers several notifications for the same client, in order.
+     *
+     * @param notifications the notifications
+     */
+    public default void deliverAll(Collection<Notification> notifications) {
+        for (Notification notification : notifications)
+            deliver(notification);
+    }
 }
@@ -2,6 +2,7 @@ package prr.notifications;
 
 import java.io.Serial;
 import java.io.Serializable;
+import java.util.Collection;
 
 import prr.clients.Client;
 
@@ -20,4 +21,9 @@ public class InAppNotifications implements DeliveryMethod, Serializable {
     public void deliver(Notification notification) {
         owner.queueNotification(notification);
     }
+
+    @Override
+    public void deliverAll(Collection<Notification> notifications) {
+        owner.queueNotifications(notifications);
+    }
 }
@@ -6,13 +6,13 @@ import prr.visitors.Printable;
 
 public abstract class Notification implements Serializable, Printable {
 
-    private final String terminalId;
+    private final int terminalId;
 
-    public Notification(String terminalId) {
+    public Notification(int terminalId) {
         this.terminalId = terminalId;
     }
 
-    public String getId() {
+    public int getId() {
         return terminalId;
     }
 }
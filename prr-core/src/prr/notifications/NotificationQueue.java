@@ -0,0 +1,222 @@
+package prr.notifications;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of notifications, delivered in the background by a worker
+ * thread of its own. The worker takes the notifications waiting in batches
+ * and hands each client's share of a batch to its delivery method at once,
+ * in the order they were queued.
+ *
+ * What happens when the queue is full is up to its {@link OverflowPolicy}.
+ */
+public class NotificationQueue {
+
+    /** What a notification queued while the queue is full does */
+    public enum OverflowPolicy {
+        /** Waits for the worker to make room */
+        BLOCK,
+        /** Is dropped, and counted */
+        DROP,
+        /** Delivers a batch of those waiting on the caller's thread, then is queued */
+        DELIVER
+    }
+
+    /** Most notifications delivered in a batch */
+    private static final int MAX_BATCH = 1024;
+
+    /** A notification waiting, and where it goes */
+    private static final class Pending {
+        private final DeliveryMethod target;
+        private final Notification notification;
+
+        private Pending(DeliveryMethod target, Notification notification) {
+            this.target = target;
+            this.notification = notification;
+        }
+    }
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+
+    /** Guards the notifications waiting and whether the queue is closed */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<Pending> pending;
+    private boolean closed = false;
+
+    /** Held while taking and delivering a batch, so batches arrive in order */
+    private final ReentrantLock delivering = new ReentrantLock();
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private final Thread worker;
+
+    /**
+     * Starts the worker of a new queue.
+     *
+     * @param capacity most notifications waiting at once
+     * @param policy   what a notification queued while the queue is full does
+     */
+    public NotificationQueue(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        this.capacity = capacity;
+        this.policy = policy;
+        pending = new ArrayDeque<>(Math.min(capacity, MAX_BATCH));
+        worker = new Thread(this::work, "notification-delivery");
+        // notifications are kept in memory only, and saves flush them first
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return number of notifications dropped as the queue was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return number of notifications whose delivery method failed
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Queues a notification. Once the queue is closed, it is delivered on the
+     * calling thread instead.
+     *
+     * @param target       the delivery method of the client notified
+     * @param notification the notification
+     */
+    public void submit(DeliveryMethod target, Notification notification) {
+        lock.lock();
+        try {
+            while (!closed && pending.size() >= capacity) {
+                switch (policy) {
+                    case BLOCK:
+                        // the worker takes no other lock, so it always makes room
+                        notFull.awaitUninterruptibly();
+                        break;
+                    case DROP:
+                        dropped.increment();
+                        return;
+                    case DELIVER:
+                        lock.unlock();
+                        try {
+                            deliverBatch();
+                        } finally {
+                            lock.lock();
+                        }
+                        break;
+                }
+            }
+            if (!closed) {
+                pending.add(new Pending(target, notification));
+                notEmpty.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        target.deliver(notification);
+    }
+
+    /**
+     * Delivers every notification queued so far, on the calling thread, along
+     * with the worker.
+     */
+    public void flush() {
+        while (deliverBatch())
+            ;
+    }
+
+    /**
+     * Delivers what is left in the queue and stops its worker. The
+     * notifications queued later are delivered on the calling thread.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        flush();
+    }
+
+    private void work() {
+        while (true) {
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed)
+                    notEmpty.awaitUninterruptibly();
+                if (pending.isEmpty())
+                    return;
+            } finally {
+                lock.unlock();
+            }
+            deliverBatch();
+        }
+    }
+
+    /**
+     * Takes a batch of the notifications waiting and delivers it, grouped by
+     * client.
+     *
+     * @return false if there were none
+     */
+    private boolean deliverBatch() {
+        delivering.lock();
+        try {
+            List<Pending> batch;
+            lock.lock();
+            try {
+                if (pending.isEmpty())
+                    return false;
+                batch = new ArrayList<>(Math.min(pending.size(), MAX_BATCH));
+                while (batch.size() < MAX_BATCH && !pending.isEmpty())
+                    batch.add(pending.poll());
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            Map<DeliveryMethod, List<Notification>> byTarget = new LinkedHashMap<>();
+            for (Pending p : batch)
+                byTarget.computeIfAbsent(p.target, target -> new ArrayList<>()).add(p.notification);
+            for (Map.Entry<DeliveryMethod, List<Notification>> entry : byTarget.entrySet()) {
+                try {
+                    entry.getKey().deliverAll(entry.getValue());
+                } catch (RuntimeException e) {
+                    // one client's delivery method doesn't hold back the others
+                    failed.add(entry.getValue().size());
+                }
+            }
+            return true;
+        } finally {
+            delivering.unlock();
+        }
+    }
+}
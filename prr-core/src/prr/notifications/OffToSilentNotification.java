@@ -3,7 +3,7 @@ package prr.notifications;
 import prr.visitors.Printer;
 
 public class OffToSilentNotification extends Notification {
-    public OffToSilentNotification(String terminalId) {
+    public OffToSilentNotification(int terminalId) {
         super(terminalId);
     }
     
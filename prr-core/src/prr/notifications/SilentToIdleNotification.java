@@ -3,7 +3,7 @@ package prr.notifications;
 import prr.visitors.Printer;
 
 public class SilentToIdleNotification extends Notification {
-    public SilentToIdleNotification(String terminalId) {
+    public SilentToIdleNotification(int terminalId) {
         super(terminalId);
     }
     
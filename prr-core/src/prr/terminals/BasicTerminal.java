@@ -9,8 +9,8 @@ import prr.visitors.Printer;
 
 public class BasicTerminal extends Terminal {
 
-    public BasicTerminal(String key, Client owner) {
-        super(key, owner);
+    public BasicTerminal(int id, Client owner) {
+        super(id, owner);
     }
 
     @Override
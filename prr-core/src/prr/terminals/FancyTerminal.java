@@ -11,8 +11,8 @@ import prr.communications.VideoCommunication;
 
 public class FancyTerminal extends Terminal {
 
-    public FancyTerminal(String key, Client owner) {
-        super(key, owner);
+    public FancyTerminal(int id, Client owner) {
+        super(id, owner);
     }
 
     @Override
@@ -0,0 +1,22 @@
+package prr.terminals;
+
+/**
+ * Communications of a terminal that are still in the snapshot it was read
+ * from, loaded the first time they are needed.
+ */
+public interface LazyCommunications {
+
+    /**
+     * @return the number of communications made and received by the terminal
+     */
+    int count();
+
+    /**
+     * Adds the communications to the terminal, with
+     * {@link Terminal#restoreMadeCommunication} and
+     * {@link Terminal#restoreReceivedCommunication}.
+     *
+     * @param terminal the terminal
+     */
+    void load(Terminal terminal);
+}
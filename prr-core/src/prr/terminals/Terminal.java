@@ -4,8 +4,9 @@ import java.io.Serial;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import prr.Journal;
 import prr.Network;
 import prr.clients.Client;
 import prr.notifications.Notification;
@@ -28,6 +29,10 @@ import prr.exceptions.TerminalDoesntExistException;
 import prr.terminals.states.*;
 import prr.visitors.Printable;
 import prr.visitors.Printer;
+import prr.util.AppendOnlyLongMap;
+import prr.util.IntHashSet;
+import prr.util.StripedLocks;
+import prr.util.TerminalKey;
 
 /**
  * Abstract terminal.
@@ -38,44 +43,164 @@ abstract public class Terminal implements Serializable, Printable, Subject {
     @Serial
     private static final long serialVersionUID = 202208091753L;
 
-    private String key;
+    /** Tolerance used when comparing the running totals with a recomputation */
+    private static final double BALANCE_EPSILON = 1e-6;
+
+    /** Bits of the state word holding the current state; the saved one, plus one, is above them */
+    private static final int STATE_BITS = 2;
+    private static final int STATE_MASK = (1 << STATE_BITS) - 1;
+
+    /** Numeric identity, the value of the 6-digit key */
+    private final int id;
     private Client owner;
-    private TreeMap<Integer, Communication> receivedCommunications = new TreeMap<>();
-    private TreeMap<Integer, Communication> madeCommunications = new TreeMap<>();
-    private ArrayList<String> friends = new ArrayList<>();
+    /**
+     * Communications by key; concurrent sessions take keys from blocks of their
+     * own, so these may arrive a little out of key order
+     */
+    private AppendOnlyLongMap<Communication> receivedCommunications = new AppendOnlyLongMap<>();
+    private AppendOnlyLongMap<Communication> madeCommunications = new AppendOnlyLongMap<>();
+    /** Friends, by identity */
+    private IntHashSet friends = new IntHashSet();
+    /** Sorted friend identities, built on demand and dropped when the friends change */
+    private transient int[] sortedFriends;
     private ArrayList<Observer> textCommunicationObservers = new ArrayList<>();
     private ArrayList<Observer> interactiveCommunicationObservers = new ArrayList<>();
     private InteractiveCommunication currentCommunication;
+    /** Communications still in the snapshot the terminal was read from, if any */
+    private transient LazyCommunications lazyCommunications;
+
+    /** Running totals over the made communications, kept up to date on every change */
+    private double paid = 0;
+    private double debt = 0;
 
     private final TerminalState busyState = new Busy(this);
     private final TerminalState idleState = new Idle(this);
     private final TerminalState offState = new Off(this);
     private final TerminalState silenceState = new Silence(this);
-    private TerminalState savedState;
-    private TerminalState state;
 
-    public Terminal(String key, Client owner) {
-        this.key = key;
+    /** The states, by the code they have in the state word */
+    private final TerminalState[] states = { idleState, busyState, offState, silenceState };
+
+    /**
+     * Current and saved states, packed so that transitions change both in one
+     * compare-and-set and queries read them without locking; starts idle, with
+     * no saved state
+     */
+    private final AtomicInteger stateWord = new AtomicInteger(0);
+
+    public Terminal(int id, Client owner) {
+        this.id = id;
         this.owner = owner;
+    }
 
-        // Default state
-        this.state = idleState;
+    public int getId() {
+        return this.id;
     }
 
+    /**
+     * @return the 6-digit key, materialised from the identity
+     */
     public String getKey() {
-        return this.key;
+        return TerminalKey.format(this.id);
+    }
+
+    /**
+     * @return the journal of the network this terminal belongs to
+     */
+    private Journal journal() {
+        return owner.getNetwork().getJournal();
     }
 
+    private int codeOf(TerminalState state) {
+        int code = 0;
+        while (states[code] != state)
+            code++;
+        return code;
+    }
+
+    /**
+     * Sets the state of a terminal being built, keeping its saved state.
+     *
+     * @param state the state
+     */
     public void setState(TerminalState state) {
-        this.state = state;
+        int code = codeOf(state);
+        stateWord.updateAndGet(word -> word & ~STATE_MASK | code);
     }
 
+    /**
+     * Sets the saved state of a terminal being built.
+     *
+     * @param state the state to return to once a communication ends
+     */
     public void saveState(TerminalState state) {
-        savedState = state;
+        int code = codeOf(state);
+        stateWord.updateAndGet(word -> (code + 1) << STATE_BITS | word & STATE_MASK);
     }
 
     public TerminalState getSavedState() {
-        return savedState;
+        int saved = stateWord.get() >>> STATE_BITS;
+        return saved == 0 ? null : states[saved - 1];
+    }
+
+    /**
+     * Moves the terminal from a state to another, keeping its saved state.
+     *
+     * @param from the state the terminal is expected to be in
+     * @param to   the new state
+     * @return false, with nothing changed, if the terminal is no longer in the
+     *         expected state
+     */
+    public boolean changeState(TerminalState from, TerminalState to) {
+        return changeState(from, to, false);
+    }
+
+    /**
+     * Moves the terminal from a state to another, saving the former to return
+     * to later.
+     *
+     * @param from the state the terminal is expected to be in
+     * @param to   the new state
+     * @return false, with nothing changed, if the terminal is no longer in the
+     *         expected state
+     */
+    public boolean saveAndChangeState(TerminalState from, TerminalState to) {
+        return changeState(from, to, true);
+    }
+
+    private boolean changeState(TerminalState from, TerminalState to, boolean save) {
+        int fromCode = codeOf(from);
+        int toCode = codeOf(to);
+        int word;
+        int next;
+        do {
+            word = stateWord.get();
+            if ((word & STATE_MASK) != fromCode)
+                return false;
+            next = (save ? fromCode + 1 : word >>> STATE_BITS) << STATE_BITS | toCode;
+        } while (!stateWord.compareAndSet(word, next));
+        return true;
+    }
+
+    /**
+     * Moves the terminal from a state back to its saved one, or to idle if
+     * there is none.
+     *
+     * @param from the state the terminal is expected to be in
+     * @return the state restored, or null, with nothing changed, if the
+     *         terminal is no longer in the expected state
+     */
+    public TerminalState restoreSavedState(TerminalState from) {
+        int fromCode = codeOf(from);
+        int word;
+        int restored;
+        do {
+            word = stateWord.get();
+            if ((word & STATE_MASK) != fromCode)
+                return null;
+            restored = Math.max(word >>> STATE_BITS, 1) - 1;
+        } while (!stateWord.compareAndSet(word, word & ~STATE_MASK | restored));
+        return states[restored];
     }
 
     public Client getOwner() {
@@ -86,16 +211,22 @@ abstract public class Terminal implements Serializable, Printable, Subject {
         return this.owner.getKey();
     }
 
-    public Collection<String> getFriends() {
-        return friends;
+    /**
+     * @return the identities of this terminal's friends, in ascending order;
+     *         the array is shared and must not be modified
+     */
+    public int[] getFriendIds() {
+        if (sortedFriends == null)
+            sortedFriends = friends.toSortedArray();
+        return sortedFriends;
     }
 
     public TerminalState getState() {
-        return this.state;
+        return states[stateWord.get() & STATE_MASK];
     }
 
     public String getStateLabel() {
-        return this.state.getLabel();
+        return getState().getLabel();
     }
 
     public TerminalState getBusyState() {
@@ -114,36 +245,163 @@ abstract public class Terminal implements Serializable, Printable, Subject {
         return this.silenceState;
     }
 
+    /**
+     * Defers the communications of a terminal read back from a snapshot until
+     * they are first needed.
+     *
+     * @param communications the communications, loaded on demand
+     */
+    public void setLazyCommunications(LazyCommunications communications) {
+        lazyCommunications = communications;
+    }
+
+    /**
+     * Loads the communications still in the snapshot, if any.
+     */
+    public void loadCommunications() {
+        if (lazyCommunications == null)
+            return;
+        LazyCommunications lazy = lazyCommunications;
+        lazyCommunications = null;
+        lazy.load(this);
+    }
+
+    private AppendOnlyLongMap<Communication> made() {
+        loadCommunications();
+        return madeCommunications;
+    }
+
+    private AppendOnlyLongMap<Communication> received() {
+        loadCommunications();
+        return receivedCommunications;
+    }
+
     public Collection<Communication> getReceivedCommunications() {
-        return receivedCommunications.values();
+        return received().values();
     }
 
     public Collection<Communication> getMadeCommunications() {
-        return madeCommunications.values();
+        return made().values();
+    }
+
+    /**
+     * @param communication a communication
+     * @return true if the communication is one of those made by this terminal
+     */
+    public boolean hasMade(Communication communication) {
+        return made().get(communication.getKey()) == communication;
     }
 
     public void registerReceivedCommunication(Communication communication) {
-        receivedCommunications.put(communication.getKey(), communication);
+        if (getCommunicationCount() == 0)
+            owner.getNetwork().terminalUsed(this);
+        received().insert(communication.getKey(), communication);
     }
 
     public void registerMadeCommunication(Communication communication) {
-        madeCommunications.put(communication.getKey(), communication);
+        addMadeCommunication(communication);
+        if (communication.isPaid())
+            updateBalance(communication.getPrice(), 0);
+        else
+            updateBalance(0, communication.getPrice());
+    }
+
+    /**
+     * Adds a communication to the made ones and to the network, without
+     * touching the totals, which an import applies in bulk.
+     *
+     * @param communication the communication
+     */
+    public void addMadeCommunication(Communication communication) {
+        if (getCommunicationCount() == 0)
+            owner.getNetwork().terminalUsed(this);
+        made().insert(communication.getKey(), communication);
+        owner.getNetwork().registerCommunication(communication);
+    }
+
+    /**
+     * Adds a communication read back from a snapshot to the made ones, without
+     * registering it in the network or touching the totals.
+     *
+     * @param communication the communication
+     */
+    public void restoreMadeCommunication(Communication communication) {
+        madeCommunications.append(communication.getKey(), communication);
+    }
+
+    /**
+     * Adds a communication read back from a snapshot to the received ones.
+     *
+     * @param communication the communication
+     */
+    public void restoreReceivedCommunication(Communication communication) {
+        receivedCommunications.append(communication.getKey(), communication);
+    }
+
+    /**
+     * Restores the running totals of a terminal read back from a snapshot,
+     * without propagating them to the owner.
+     *
+     * @param paid paid total
+     * @param debt debt total
+     */
+    public void restoreBalance(double paid, double debt) {
+        this.paid = paid;
+        this.debt = debt;
+    }
+
+    /**
+     * Applies a change to the running paid and debt totals and propagates it to
+     * the owner.
+     *
+     * @param paid amount to add to the paid total
+     * @param debt amount to add to the debt total
+     */
+    public void updateBalance(double paid, double debt) {
+        this.paid += paid;
+        this.debt += debt;
+        owner.updateBalance(this, paid, debt);
     }
 
     public void setCurrentCommunication(InteractiveCommunication currentCommunication) {
         this.currentCommunication = currentCommunication;
     }
 
+    /**
+     * @return the locks this terminal's operations take, in concurrent mode
+     */
+    private StripedLocks.Held lock() {
+        return owner.getNetwork().lockTerminals(this);
+    }
+
     public void toSilence() throws SilencedTerminalException, BusyTerminalException {
-        state.toSilence();
+        StripedLocks.Held held = lock();
+        try {
+            getState().toSilence();
+            journal().silenced(this);
+        } finally {
+            held.unlock();
+        }
     }
 
     public void toOff() throws BusyTerminalException, OffTerminalException {
-        state.toOff();
+        StripedLocks.Held held = lock();
+        try {
+            getState().toOff();
+            journal().turnedOff(this);
+        } finally {
+            held.unlock();
+        }
     }
 
     public void toOn() throws BusyTerminalException, SilencedTerminalException, IdleTerminalException {
-        state.toOn();
+        StripedLocks.Held held = lock();
+        try {
+            getState().toOn();
+            journal().turnedOn(this);
+        } finally {
+            held.unlock();
+        }
     }
 
     public boolean isSilenced() {
@@ -162,35 +420,55 @@ abstract public class Terminal implements Serializable, Printable, Subject {
         return getState().equals(getIdleState());
     }
 
-    public boolean isFriend(String key) {
-        return friends.contains(key);
+    public boolean isFriend(Terminal terminal) {
+        return friends.contains(terminal.getId());
     }
 
-    public void addFriend(String friend) {
-        if (!friends.contains(friend))
-            friends.add(friend);
+    public void addFriend(Terminal friend) {
+        if (friends.add(friend.getId())) {
+            sortedFriends = null;
+            journal().friendAdded(this, friend);
+        }
     }
 
     public void addFriend(String friend, Network network) throws TerminalDoesntExistException {
-        network.checkTerminal(friend);
-        if (!isFriend(friend) && !friend.equals(getKey()))
-            friends.add(friend);
+        Terminal terminal = network.getTerminal(friend);
+        if (terminal == this)
+            return;
+        StripedLocks.Held held = lock();
+        try {
+            addFriend(terminal);
+        } finally {
+            held.unlock();
+        }
     }
 
     public void removeFriend(String friend, Network network) throws TerminalDoesntExistException {
-        network.checkTerminal(friend);
-        if (friends.contains(friend))
-            friends.remove(friend);
+        Terminal terminal = network.getTerminal(friend);
+        StripedLocks.Held held = lock();
+        try {
+            if (friends.remove(terminal.getId())) {
+                sortedFriends = null;
+                journal().friendRemoved(this, terminal);
+            }
+        } finally {
+            held.unlock();
+        }
     }
 
     public void sendText(String receiverKey, String text, Network network)
             throws TerminalDoesntExistException, OffTerminalException {
         Terminal receiver = network.getTerminal(receiverKey);
-        TextCommunication communication = network.newTextCommunication(this, receiver, text, isFriend(receiverKey));
-        receiver.receiveText(communication);
-        registerMadeCommunication(communication);
-        getOwner().increaseTextCount();
-        getOwner().updateType();
+        StripedLocks.Held held = network.lockTerminals(this, receiver);
+        try {
+            TextCommunication communication = network.newTextCommunication(this, receiver, text, isFriend(receiver));
+            receiver.receiveText(communication);
+            registerMadeCommunication(communication);
+            getOwner().increaseTextCount();
+            getOwner().updateType();
+        } finally {
+            held.unlock();
+        }
     }
 
     public void receiveText(TextCommunication text) throws OffTerminalException {
@@ -204,15 +482,27 @@ abstract public class Terminal implements Serializable, Printable, Subject {
     public void startInteractiveCommunication(String receiverKey, String type, Network network)
             throws TerminalDoesntExistException, InvalidOriginException,
             InvalidDestinationException, BusyTerminalException, OffTerminalException, SilencedTerminalException {
-        if (receiverKey.equals(getKey()))
+        if (TerminalKey.parse(receiverKey) == id)
             throw new InvalidDestinationException(receiverKey, type);
         Terminal receiver = network.getTerminal(receiverKey);
-        if (type.equals("VOICE"))
-            startVoiceCommunication(receiver, network);
-        else if (type.equals("VIDEO"))
-            startVideoCommunication(receiver, network);
-        else
-            throw new InvalidOriginException(getKey(), type);
+        StripedLocks.Held held = network.lockTerminals(this, receiver);
+        try {
+            // Another session may have made this terminal busy, or turned it
+            // off, since it was found able to start one; the receiver must not
+            // be left in a communication its sender can't start
+            if (isBusy())
+                throw new BusyTerminalException(getKey());
+            if (isOff())
+                throw new OffTerminalException(getKey());
+            if (type.equals("VOICE"))
+                startVoiceCommunication(receiver, network);
+            else if (type.equals("VIDEO"))
+                startVideoCommunication(receiver, network);
+            else
+                throw new InvalidOriginException(getKey(), type);
+        } finally {
+            held.unlock();
+        }
     }
 
     private void startVoiceCommunication(Terminal receiver, Network network)
@@ -244,13 +534,29 @@ abstract public class Terminal implements Serializable, Printable, Subject {
     public abstract void receiveVideoCommunication(VideoCommunication communication)
             throws OffTerminalException, SilencedTerminalException, BusyTerminalException, InvalidDestinationException;
 
+    /**
+     * Ends the interactive communication this terminal started.
+     *
+     * @param units duration of the communication
+     * @return the price of the communication
+     * @throws IllegalStateException if the terminal has no communication to end,
+     *                               as when another session ended it first
+     */
     public double endCommunication(int units) {
-        Terminal receiver = currentCommunication.getReceiver();
-        getState().endCommunication();
-        receiver.notifyEndedCommunication();
-        double price = currentCommunication.endCommunication(units, isFriend(receiver.getKey()));
-        getOwner().updateType();
-        return price;
+        StripedLocks.Held held = lock();
+        try {
+            if (!canEndCurrentCommunication())
+                throw new IllegalStateException("No communication to end at " + getKey());
+            journal().interactiveEnded(this, units);
+            Terminal receiver = currentCommunication.getReceiver();
+            getState().endCommunication();
+            receiver.notifyEndedCommunication();
+            double price = currentCommunication.endCommunication(units, isFriend(receiver));
+            getOwner().updateType();
+            return price;
+        } finally {
+            held.unlock();
+        }
     }
 
     public void notifyEndedCommunication() {
@@ -267,7 +573,7 @@ abstract public class Terminal implements Serializable, Printable, Subject {
     public boolean canEndCurrentCommunication() {
         if (currentCommunication == null)
             return false;
-        return isBusy() && madeCommunications.keySet().contains(currentCommunication.getKey());
+        return isBusy() && made().containsKey(currentCommunication.getKey());
     }
 
     /**
@@ -288,8 +594,16 @@ abstract public class Terminal implements Serializable, Printable, Subject {
     }
 
     public double getDebt() {
+        return debt;
+    }
+
+    public double getPaid() {
+        return paid;
+    }
+
+    private double computeDebt() {
         double total = 0;
-        for (Communication c : madeCommunications.values()) {
+        for (Communication c : made().values()) {
             if (!c.isPaid())
                 total += c.getPrice();
         }
@@ -297,9 +611,9 @@ abstract public class Terminal implements Serializable, Printable, Subject {
         return total;
     }
 
-    public double getPaid() {
+    private double computePaid() {
         double total = 0;
-        for (Communication c : madeCommunications.values()) {
+        for (Communication c : made().values()) {
             if (c.isPaid())
                 total += c.getPrice();
         }
@@ -307,24 +621,58 @@ abstract public class Terminal implements Serializable, Printable, Subject {
         return total;
     }
 
-    public void payCommunication(int key) throws InvalidCommunicationException {
-        Communication communication = madeCommunications.get(key);
+    /**
+     * Checks the running totals against a full recomputation over the made
+     * communications.
+     *
+     * @return true if both the paid and the debt totals match the recomputed
+     *         values
+     */
+    public boolean isBalanceConsistent() {
+        return Math.abs(paid - computePaid()) <= BALANCE_EPSILON
+                && Math.abs(debt - computeDebt()) <= BALANCE_EPSILON;
+    }
 
-        if (communication == null || !communication.isFinished() || communication.isPaid())
-            throw new InvalidCommunicationException();
+    public void payCommunication(long key) throws InvalidCommunicationException {
+        StripedLocks.Held held = lock();
+        try {
+            Communication communication = made().get(key);
+
+            if (communication == null || !communication.isFinished() || communication.isPaid())
+                throw new InvalidCommunicationException();
 
-        communication.payCommunication();
-        getOwner().updateType();
+            communication.payCommunication();
+            updateBalance(communication.getPrice(), -communication.getPrice());
+            getOwner().updateType();
+            journal().paid(this, key);
+        } finally {
+            held.unlock();
+        }
     }
 
     public int getCommunicationCount() {
+        if (lazyCommunications != null)
+            return lazyCommunications.count();
         return receivedCommunications.size() + madeCommunications.size();
     }
 
     public void acceptCurrentCommunicationPrinter(Printer printer) throws NoOngoingCommunicationException {
-        if (currentCommunication == null || currentCommunication.isFinished())
-            throw new NoOngoingCommunicationException();
-        currentCommunication.accept(printer);
+        StripedLocks.Held held = lock();
+        try {
+            if (currentCommunication == null || currentCommunication.isFinished())
+                throw new NoOngoingCommunicationException();
+            currentCommunication.accept(printer);
+        } finally {
+            held.unlock();
+        }
+    }
+
+    public Collection<Observer> getTextCommunicationObservers() {
+        return textCommunicationObservers;
+    }
+
+    public Collection<Observer> getInteractiveCommunicationObservers() {
+        return interactiveCommunicationObservers;
     }
 
     private void clearInteractiveCommunicationObservers() {
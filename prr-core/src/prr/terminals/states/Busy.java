@@ -37,9 +37,11 @@ public class Busy extends TerminalState {
 
     @Override
     public void endCommunication() {
-        if ((terminal.getSavedState()).equals(terminal.getIdleState()))
-            terminal.notifyInteractiveCommunicationObservers(new BusyToIdleNotification(terminal.getKey()));
-        terminal.setState(terminal.getSavedState());
+        TerminalState restored = terminal.restoreSavedState(this);
+        if (restored == null)
+            terminal.getState().endCommunication();
+        else if (restored.equals(terminal.getIdleState()))
+            terminal.notifyInteractiveCommunicationObservers(new BusyToIdleNotification(terminal.getId()));
     }
 
     @Override
@@ -13,13 +13,15 @@ public class Idle extends TerminalState {
     }
 
     @Override
-    public void toSilence() {
-        terminal.setState(terminal.getSilenceState());
+    public void toSilence() throws SilencedTerminalException, BusyTerminalException {
+        if (!terminal.changeState(this, terminal.getSilenceState()))
+            terminal.getState().toSilence();
     }
 
     @Override
-    public void toOff() {
-        terminal.setState(terminal.getOffState());
+    public void toOff() throws BusyTerminalException, OffTerminalException {
+        if (!terminal.changeState(this, terminal.getOffState()))
+            terminal.getState().toOff();
     }
 
     @Override
@@ -28,15 +30,15 @@ public class Idle extends TerminalState {
     }
 
     @Override
-    public void startCommunication() {
-        terminal.saveState(this);
-        terminal.setState(terminal.getBusyState());
+    public void startCommunication() throws BusyTerminalException, OffTerminalException {
+        if (!terminal.saveAndChangeState(this, terminal.getBusyState()))
+            terminal.getState().startCommunication();
     }
 
     @Override
     public void receiveCommunication() throws BusyTerminalException, OffTerminalException, SilencedTerminalException {
-        terminal.saveState(this);
-        terminal.setState(terminal.getBusyState());
+        if (!terminal.saveAndChangeState(this, terminal.getBusyState()))
+            terminal.getState().receiveCommunication();
     }
 
     @Override
@@ -1,6 +1,7 @@
 package prr.terminals.states;
 
 import prr.exceptions.BusyTerminalException;
+import prr.exceptions.IdleTerminalException;
 import prr.exceptions.OffTerminalException;
 import prr.exceptions.SilencedTerminalException;
 import prr.notifications.OffToIdleNotification;
@@ -14,9 +15,11 @@ public class Off extends TerminalState {
     }
 
     @Override
-    public void toSilence() {
-        terminal.notifyTextCommunicationObservers(new OffToSilentNotification(terminal.getKey()));
-        terminal.setState(terminal.getSilenceState());
+    public void toSilence() throws SilencedTerminalException, BusyTerminalException {
+        if (terminal.changeState(this, terminal.getSilenceState()))
+            terminal.notifyTextCommunicationObservers(new OffToSilentNotification(terminal.getId()));
+        else
+            terminal.getState().toSilence();
     }
 
     @Override
@@ -25,9 +28,11 @@ public class Off extends TerminalState {
     }
 
     @Override
-    public void toOn() {
-        terminal.notifyAllObservers(new OffToIdleNotification(terminal.getKey()));
-        terminal.setState(terminal.getIdleState());
+    public void toOn() throws IdleTerminalException, BusyTerminalException, SilencedTerminalException {
+        if (terminal.changeState(this, terminal.getIdleState()))
+            terminal.notifyAllObservers(new OffToIdleNotification(terminal.getId()));
+        else
+            terminal.getState().toOn();
     }
 
     @Override
@@ -1,5 +1,8 @@
 package prr.terminals.states;
 
+import prr.exceptions.BusyTerminalException;
+import prr.exceptions.IdleTerminalException;
+import prr.exceptions.OffTerminalException;
 import prr.exceptions.SilencedTerminalException;
 import prr.notifications.SilentToIdleNotification;
 import prr.terminals.Terminal;
@@ -16,14 +19,17 @@ public class Silence extends TerminalState {
     }
 
     @Override
-    public void toOff() {
-        terminal.setState(terminal.getOffState());
+    public void toOff() throws BusyTerminalException, OffTerminalException {
+        if (!terminal.changeState(this, terminal.getOffState()))
+            terminal.getState().toOff();
     }
 
     @Override
-    public void toOn() throws SilencedTerminalException {
-        terminal.notifyInteractiveCommunicationObservers(new SilentToIdleNotification(terminal.getKey()));
-        terminal.setState(terminal.getIdleState());
+    public void toOn() throws IdleTerminalException, BusyTerminalException, SilencedTerminalException {
+        if (terminal.changeState(this, terminal.getIdleState()))
+            terminal.notifyInteractiveCommunicationObservers(new SilentToIdleNotification(terminal.getId()));
+        else
+            terminal.getState().toOn();
     }
 
     @Override
@@ -32,9 +38,9 @@ public class Silence extends TerminalState {
     }
 
     @Override
-    public void startCommunication() {
-        terminal.saveState(this);
-        terminal.setState(terminal.getBusyState());
+    public void startCommunication() throws BusyTerminalException, OffTerminalException {
+        if (!terminal.saveAndChangeState(this, terminal.getBusyState()))
+            terminal.getState().startCommunication();
     }
 
     @Override
@@ -9,6 +9,14 @@ import prr.exceptions.OffTerminalException;
 import prr.exceptions.SilencedTerminalException;
 import prr.terminals.Terminal;
 
+/**
+ * State of a terminal, deciding what each operation does to it.
+ *
+ * A transition takes effect only if the terminal is still in the state it
+ * starts from, see {@link Terminal#changeState(TerminalState, TerminalState)};
+ * if a concurrent operation moved the terminal first, the operation is handed
+ * to the state it is in now.
+ */
 public abstract class TerminalState implements Serializable {
 
     @Serial
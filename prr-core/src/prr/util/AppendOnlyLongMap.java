@@ -0,0 +1,161 @@
+package prr.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Map from long keys to values for keys that arrive in increasing order.
+ * Entries live in two parallel arrays, so there is no boxing and no entry
+ * object per mapping, lookups are binary searches and iteration follows the
+ * key order.
+ *
+ * @param <V> the type of the mapped values
+ */
+public class AppendOnlyLongMap<V> implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 202210231015L;
+
+    private static final int DEFAULT_CAPACITY = 4;
+
+    private transient long[] keys = new long[DEFAULT_CAPACITY];
+    private transient Object[] values = new Object[DEFAULT_CAPACITY];
+    private transient int size = 0;
+
+    /**
+     * Adds a mapping after all existing ones.
+     *
+     * @param key   the key, greater than every key already in the map
+     * @param value the value
+     * @throws IllegalArgumentException if the key is not greater than the last
+     *                                  key
+     */
+    public void append(long key, V value) {
+        if (size > 0 && key <= keys[size - 1])
+            throw new IllegalArgumentException("Key " + key + " is not after " + keys[size - 1]);
+        ensureRoom();
+        keys[size] = key;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Adds a mapping in key order. Keys that arrive only a little out of order,
+     * as from writers running concurrently, cost a short move of the entries
+     * after them.
+     *
+     * @param key   the key, not already in the map
+     * @param value the value
+     * @throws IllegalArgumentException if the key is already in the map
+     */
+    public void insert(long key, V value) {
+        if (size == 0 || key > keys[size - 1]) {
+            append(key, value);
+            return;
+        }
+        int index = size - 1;
+        while (index >= 0 && keys[index] > key)
+            index--;
+        if (index >= 0 && keys[index] == key)
+            throw new IllegalArgumentException("Key " + key + " is already in the map");
+        index++;
+        ensureRoom();
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        keys[index] = key;
+        values[index] = value;
+        size++;
+    }
+
+    private void ensureRoom() {
+        if (size == keys.length) {
+            int capacity = keys.length + (keys.length >> 1) + 1;
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    /**
+     * @param key the key to look up
+     * @return the value mapped to the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        return index >= 0 ? (V) values[index] : null;
+    }
+
+    public boolean containsKey(long key) {
+        return Arrays.binarySearch(keys, 0, size, key) >= 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return a read-only view of the values, in key order
+     */
+    public Collection<V> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new Iterator<>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public V next() {
+                        if (next >= size)
+                            throw new NoSuchElementException();
+                        return (V) values[next++];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Serial
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        oos.defaultWriteObject();
+        oos.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            oos.writeLong(keys[i]);
+            oos.writeObject(values[i]);
+        }
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        size = ois.readInt();
+        keys = new long[Math.max(size, DEFAULT_CAPACITY)];
+        values = new Object[keys.length];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ois.readLong();
+            values[i] = ois.readObject();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package prr.util;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Key ordered by {@link NaturalLanguageTextComparator}, with the collation
+ * computed once and cached, so that comparisons become byte-array compares.
+ */
+public class CollatedKey implements Comparable<CollatedKey>, Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 202210221830L;
+
+    /** Shared comparator used to compute the collation of every key */
+    private static final NaturalLanguageTextComparator COMPARATOR = new NaturalLanguageTextComparator();
+
+    private final String key;
+
+    /** Collation bytes, recomputed on demand after deserialization */
+    private transient byte[] collation;
+
+    public CollatedKey(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Computes the collation now, rather than on first comparison, as when
+     * the key is built on one thread and compared on another.
+     *
+     * @return this key
+     */
+    public CollatedKey prepare() {
+        getCollation();
+        return this;
+    }
+
+    private byte[] getCollation() {
+        if (collation == null)
+            collation = COMPARATOR.getCollationKey(key).toByteArray();
+        return collation;
+    }
+
+    @Override
+    public int compareTo(CollatedKey other) {
+        return Arrays.compareUnsigned(getCollation(), other.getCollation());
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CollatedKey && Arrays.equals(getCollation(), ((CollatedKey) other).getCollation());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(getCollation());
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+}
@@ -0,0 +1,120 @@
+package prr.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Map from non-negative ints to values, stored in an {@link IntTable}. Besides
+ * constant-time lookups it offers a key-ordered view of the values.
+ *
+ * @param <V> the type of the mapped values
+ */
+public class IntHashMap<V> extends IntTable {
+
+    @Serial
+    private static final long serialVersionUID = 202210231520L;
+
+    public IntHashMap() {
+        super(true);
+    }
+
+    /**
+     * @param key the key to look up
+     * @return the value mapped to the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int i = indexOf(key);
+        return i < 0 ? null : (V) valueAt(i);
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @param key   the key, not negative
+     * @param value the value
+     * @return the value previously mapped to the key, or null if there was none
+     */
+    public V put(int key, V value) {
+        V previous = get(key);
+        insert(key, value);
+        return previous;
+    }
+
+    /**
+     * @param key the key to remove
+     * @return the value that was mapped to the key, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int i = indexOf(key);
+        if (i < 0)
+            return null;
+        V previous = (V) valueAt(i);
+        removeAt(i);
+        return previous;
+    }
+
+    /**
+     * @return a read-only view of the values, in ascending key order
+     */
+    public Collection<V> sortedValues() {
+        int[] sorted = sortedKeys();
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new Iterator<>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < sorted.length;
+                    }
+
+                    @Override
+                    public V next() {
+                        if (next >= sorted.length)
+                            throw new NoSuchElementException();
+                        return get(sorted[next++]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return sorted.length;
+            }
+        };
+    }
+
+    @Serial
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        oos.defaultWriteObject();
+        int[] keys = sortedKeys();
+        oos.writeInt(keys.length);
+        for (int key : keys) {
+            oos.writeInt(key);
+            oos.writeObject(get(key));
+        }
+    }
+
+    @Serial
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        int count = ois.readInt();
+        reset(count, true);
+        for (int i = 0; i < count; i++) {
+            int key = ois.readInt();
+            put(key, (V) ois.readObject());
+        }
+    }
+}
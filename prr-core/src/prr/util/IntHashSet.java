@@ -0,0 +1,70 @@
+package prr.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+
+/**
+ * Set of non-negative ints, stored in an {@link IntTable} with no values.
+ * Membership tests, insertions and removals take constant expected time and
+ * no element is boxed.
+ */
+public class IntHashSet extends IntTable {
+
+    @Serial
+    private static final long serialVersionUID = 202210231140L;
+
+    public IntHashSet() {
+        super(false);
+    }
+
+    public boolean contains(int element) {
+        return indexOf(element) >= 0;
+    }
+
+    /**
+     * @param element the element to add, not negative
+     * @return true if the set did not already contain the element
+     */
+    public boolean add(int element) {
+        return insert(element, null);
+    }
+
+    /**
+     * @param element the element to remove
+     * @return true if the set contained the element
+     */
+    public boolean remove(int element) {
+        int i = indexOf(element);
+        if (i < 0)
+            return false;
+        removeAt(i);
+        return true;
+    }
+
+    /**
+     * @return the elements, in ascending order
+     */
+    public int[] toSortedArray() {
+        return sortedKeys().clone();
+    }
+
+    @Serial
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        oos.defaultWriteObject();
+        int[] elements = sortedKeys();
+        oos.writeInt(elements.length);
+        for (int element : elements)
+            oos.writeInt(element);
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        int count = ois.readInt();
+        reset(count, false);
+        for (int i = 0; i < count; i++)
+            add(ois.readInt());
+    }
+}
@@ -0,0 +1,171 @@
+package prr.util;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Open-addressing table of non-negative int keys with linear probing, shared
+ * by {@link IntHashSet}, which keeps no values, and {@link IntHashMap}.
+ * Removals shift back the rest of the probe run, so there are no tombstones.
+ * The keys in ascending order are sorted on first use and kept until a key is
+ * added or removed. Subclasses serialize the entries themselves.
+ */
+abstract class IntTable implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 202211051000L;
+
+    /** Marks an empty slot; keys are never negative */
+    private static final int EMPTY = -1;
+
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private transient int[] keys;
+
+    /** Value of each slot, or null if the table keeps none */
+    private transient Object[] values;
+
+    private transient int size = 0;
+
+    /** Keys in ascending order, or null if they changed since last sorted */
+    private transient int[] sortedKeys;
+
+    /**
+     * @param withValues whether the table keeps a value for each key
+     */
+    IntTable(boolean withValues) {
+        allocate(DEFAULT_CAPACITY, withValues);
+    }
+
+    private void allocate(int capacity, boolean withValues) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = withValues ? new Object[capacity] : null;
+    }
+
+    /**
+     * Empties the table, with room for a given number of keys, as when read
+     * back.
+     *
+     * @param count      the number of keys to make room for
+     * @param withValues whether the table keeps a value for each key
+     */
+    final void reset(int count, boolean withValues) {
+        int capacity = DEFAULT_CAPACITY;
+        while (count * 4 > capacity * 3)
+            capacity *= 2;
+        allocate(capacity, withValues);
+        size = 0;
+        sortedKeys = null;
+    }
+
+    private int slot(int key) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (keys.length - 1);
+    }
+
+    private int find(int key) {
+        int i = slot(key);
+        while (keys[i] != EMPTY && keys[i] != key)
+            i = (i + 1) & (keys.length - 1);
+        return i;
+    }
+
+    /**
+     * @return the slot holding a key, or -1 if there is none
+     */
+    final int indexOf(int key) {
+        if (key < 0)
+            return -1;
+        int i = find(key);
+        return keys[i] == key ? i : -1;
+    }
+
+    final Object valueAt(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Adds a key, or replaces the value mapped to it.
+     *
+     * @param key   the key, not negative
+     * @param value the value, ignored if the table keeps none
+     * @return true if the key was added
+     */
+    final boolean insert(int key, Object value) {
+        if (key < 0)
+            throw new IllegalArgumentException("Negative key " + key);
+        int i = find(key);
+        if (values != null)
+            values[i] = value;
+        if (keys[i] == key)
+            return false;
+        keys[i] = key;
+        sortedKeys = null;
+        if (++size * 4 > keys.length * 3)
+            resize(keys.length * 2);
+        return true;
+    }
+
+    /**
+     * @param slot the slot of a key to remove, from {@link #indexOf}
+     */
+    final void removeAt(int slot) {
+        keys[slot] = EMPTY;
+        if (values != null)
+            values[slot] = null;
+        size--;
+        sortedKeys = null;
+        // Shift back the entries of the same probe run, so lookups never stop
+        // at the freed slot
+        for (int j = (slot + 1) & (keys.length - 1); keys[j] != EMPTY; j = (j + 1) & (keys.length - 1)) {
+            int moved = keys[j];
+            keys[j] = EMPTY;
+            int k = find(moved);
+            keys[k] = moved;
+            if (values != null) {
+                values[k] = values[j];
+                if (k != j)
+                    values[j] = null;
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity, oldValues != null);
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldKeys[i] != EMPTY) {
+                int k = find(oldKeys[i]);
+                keys[k] = oldKeys[i];
+                if (values != null)
+                    values[k] = oldValues[i];
+            }
+    }
+
+    public final int size() {
+        return size;
+    }
+
+    public final boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the keys in ascending order, shared until they change
+     */
+    final int[] sortedKeys() {
+        if (sortedKeys == null) {
+            int[] sorted = new int[size];
+            int n = 0;
+            for (int key : keys)
+                if (key != EMPTY)
+                    sorted[n++] = key;
+            Arrays.sort(sorted);
+            sortedKeys = sorted;
+        }
+        return sortedKeys;
+    }
+}
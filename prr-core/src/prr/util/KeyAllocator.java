@@ -0,0 +1,110 @@
+package prr.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source of increasing long keys for any number of threads. Each thread takes
+ * its keys from a block of consecutive ones reserved for it, so the shared
+ * counter is only touched once per block.
+ *
+ * The keys of a thread increase, while those of different threads interleave
+ * by up to a block per thread: a block is used until it runs out, however long
+ * its thread pauses. With blocks of a single key the keys are consecutive, in
+ * the order taken.
+ */
+public class KeyAllocator implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 202210241130L;
+
+    /** Keys reserved for a thread */
+    private static final class Block {
+        private long next = 1;
+        private long end = 0;
+
+        /** Generation of the allocator the block belongs to */
+        private int generation = -1;
+    }
+
+    /** Last key reserved */
+    private final AtomicLong last = new AtomicLong();
+
+    private volatile int blockSize = 1;
+
+    /**
+     * Changed to drop the blocks of every thread, only while no key is being
+     * taken
+     */
+    private volatile int generation = 0;
+
+    private transient ThreadLocal<Block> blocks = ThreadLocal.withInitial(Block::new);
+
+    /**
+     * @return a key greater than any the calling thread took before
+     */
+    public long next() {
+        Block block = blocks.get();
+        if (block.next > block.end || block.generation != generation)
+            reserve(block);
+        return block.next++;
+    }
+
+    private void reserve(Block block) {
+        int size = blockSize;
+        block.generation = generation;
+        block.end = last.addAndGet(size);
+        block.next = block.end - size + 1;
+    }
+
+    /**
+     * Makes a given key the next one the calling thread takes, as when
+     * repeating the changes that took it. Later keys come after it.
+     *
+     * @param key the key, not taken yet
+     */
+    public void claim(long key) {
+        Block block = blocks.get();
+        block.generation = generation;
+        block.next = key;
+        block.end = key;
+        last.accumulateAndGet(key, Math::max);
+    }
+
+    /**
+     * @return the last key reserved, greater than or equal to every key taken
+     */
+    public long last() {
+        return last.get();
+    }
+
+    /**
+     * Starts over after a given key, dropping the blocks of every thread.
+     *
+     * @param last the last key taken
+     */
+    public synchronized void reset(long last) {
+        this.last.set(last);
+        generation++;
+    }
+
+    /**
+     * @param size number of keys reserved at a time by each thread; the blocks
+     *             reserved before are dropped
+     */
+    public synchronized void setBlockSize(int size) {
+        if (size <= 0)
+            throw new IllegalArgumentException("Invalid block size " + size);
+        blockSize = size;
+        generation++;
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        blocks = ThreadLocal.withInitial(Block::new);
+    }
+}
@@ -0,0 +1,98 @@
+package prr.util;
+
+import java.util.Arrays;
+
+/**
+ * Map from non-negative longs to values, stored in an open-addressing table
+ * with linear probing, so there is no boxing and no entry object per mapping.
+ *
+ * @param <V> the type of the mapped values
+ */
+public class LongHashMap<V> {
+
+    /** Marks an empty slot; keys are never negative */
+    private static final long EMPTY = -1;
+
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private long[] keys = newKeys(DEFAULT_CAPACITY);
+    private Object[] values = new Object[DEFAULT_CAPACITY];
+    private int size = 0;
+
+    private static long[] newKeys(int capacity) {
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & (keys.length - 1);
+    }
+
+    private int find(long key) {
+        int i = slot(key);
+        while (keys[i] != EMPTY && keys[i] != key)
+            i = (i + 1) & (keys.length - 1);
+        return i;
+    }
+
+    /**
+     * @param key the key to look up
+     * @return the value mapped to the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key < 0)
+            return null;
+        int i = find(key);
+        return keys[i] == key ? (V) values[i] : null;
+    }
+
+    public boolean containsKey(long key) {
+        return key >= 0 && keys[find(key)] == key;
+    }
+
+    /**
+     * @param key   the key, not negative
+     * @param value the value
+     * @return the value previously mapped to the key, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key < 0)
+            throw new IllegalArgumentException("Negative key " + key);
+        int i = find(key);
+        if (keys[i] == key) {
+            V previous = (V) values[i];
+            values[i] = value;
+            return previous;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 4 > keys.length * 3)
+            resize(keys.length * 2);
+        return null;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = newKeys(capacity);
+        values = new Object[capacity];
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldKeys[i] != EMPTY) {
+                int k = find(oldKeys[i]);
+                keys[k] = oldKeys[i];
+                values[k] = oldValues[i];
+            }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
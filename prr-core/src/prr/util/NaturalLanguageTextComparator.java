@@ -1,5 +1,6 @@
 package prr.util;
 
+import java.text.CollationKey;
 import java.text.Collator;
 import java.util.Locale;
 import java.util.Comparator;
@@ -34,4 +35,13 @@ public class NaturalLanguageTextComparator implements Comparator<String>, Serial
   public int compare(String s1, String s2) {
     return collator.compare(s1, s2);
   }
+
+  /**
+   * @param s the string to collate
+   * @return the collation key of the string, consistent with
+   *         {@link #compare(String, String)}
+   */
+  public CollationKey getCollationKey(String s) {
+    return collator.getCollationKey(s);
+  }
 }
@@ -0,0 +1,84 @@
+package prr.util;
+
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed number of locks shared by any number of objects, each object being
+ * guarded by the lock of the stripe its hash falls in. Operations over several
+ * objects lock their stripes together, in ascending order, so two of them can
+ * never wait on each other.
+ */
+public class StripedLocks {
+
+    /**
+     * Stripes locked together, to be unlocked in a finally block once done
+     */
+    public interface Held {
+        void unlock();
+    }
+
+    /** Holds nothing, for code that runs without locking */
+    public static final Held NONE = () -> {
+    };
+
+    private final ReentrantLock[] locks;
+
+    /**
+     * @param stripes number of stripes, a power of two
+     */
+    public StripedLocks(int stripes) {
+        if (stripes <= 0 || Integer.bitCount(stripes) != 1)
+            throw new IllegalArgumentException("Stripes must be a power of two: " + stripes);
+        locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++)
+            locks[i] = new ReentrantLock();
+    }
+
+    /**
+     * @param key an object guarded by these locks
+     * @return the stripe guarding the object
+     */
+    public int stripeOf(Object key) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (locks.length - 1);
+    }
+
+    /**
+     * Locks some stripes, waiting for them in ascending order. The calling
+     * thread must hold none yet: locking more later could take a stripe below
+     * one it holds.
+     *
+     * @param stripes the stripes to lock
+     * @return the stripes locked, to be unlocked once done
+     */
+    public Held lock(BitSet stripes) {
+        assert holdsNone() : "Stripes locked again by the thread holding them";
+        BitSet held = (BitSet) stripes.clone();
+        for (int i = held.nextSetBit(0); i >= 0; i = held.nextSetBit(i + 1))
+            locks[i].lock();
+        return () -> {
+            for (int i = held.length() - 1; i >= 0; i = held.previousSetBit(i - 1))
+                locks[i].unlock();
+        };
+    }
+
+    private boolean holdsNone() {
+        for (ReentrantLock lock : locks)
+            if (lock.isHeldByCurrentThread())
+                return false;
+        return true;
+    }
+
+    /**
+     * Locks every stripe, for operations that need the whole of what the
+     * locks guard to stand still.
+     *
+     * @return the stripes locked, to be unlocked once done
+     */
+    public Held lockAll() {
+        BitSet all = new BitSet(locks.length);
+        all.set(0, locks.length);
+        return lock(all);
+    }
+}
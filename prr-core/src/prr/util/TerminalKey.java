@@ -0,0 +1,47 @@
+package prr.util;
+
+/**
+ * Conversions between the 6-digit terminal keys seen by users and the int
+ * identities used inside the core. Since every key has the same length, the
+ * numeric order of the identities is the order of the keys.
+ */
+public final class TerminalKey {
+
+    /** Number of digits in a terminal key */
+    public static final int LENGTH = 6;
+
+    private TerminalKey() {
+        // static helpers only
+    }
+
+    /**
+     * @param key the key to convert
+     * @return the identity of the key, or -1 if it is not made of exactly 6
+     *         ASCII digits
+     */
+    public static int parse(String key) {
+        if (key.length() != LENGTH)
+            return -1;
+        int id = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            id = id * 10 + (c - '0');
+        }
+        return id;
+    }
+
+    /**
+     * @param id a terminal identity
+     * @return the 6-digit key of the identity
+     */
+    public static String format(int id) {
+        char[] digits = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + id % 10);
+            id /= 10;
+        }
+        return new String(digits);
+    }
+}
@@ -0,0 +1,303 @@
+package prr.visitors;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import prr.clients.Client;
+import prr.communications.Communication;
+import prr.communications.TextCommunication;
+import prr.communications.VideoCommunication;
+import prr.communications.VoiceCommunication;
+import prr.notifications.BusyToIdleNotification;
+import prr.notifications.OffToIdleNotification;
+import prr.notifications.OffToSilentNotification;
+import prr.notifications.SilentToIdleNotification;
+import prr.terminals.FancyTerminal;
+import prr.terminals.BasicTerminal;
+import prr.terminals.Terminal;
+import prr.util.TerminalKey;
+
+/**
+ * Printer that writes each entity it visits as a line of delimited fields,
+ * encoded in UTF-8, straight to a channel through a buffer of its own. Nothing
+ * is kept between lines, so exporting a history takes the same memory however
+ * long it is.
+ *
+ * The lines are:
+ * <ul>
+ * <li>CLIENT,key,name,nif,type,paid,debt</li>
+ * <li>BASIC|FANCY,key,owner,state,paid,debt,friends</li>
+ * <li>TEXT|VOICE|VIDEO,key,sender,receiver,units,price,PAID|UNPAID,FINISHED|ONGOING</li>
+ * <li>OFF_TO_IDLE|OFF_TO_SILENT|BUSY_TO_IDLE|SILENT_TO_IDLE,terminal</li>
+ * </ul>
+ * where the friends are separated by spaces. A field holding the separator, a
+ * quote or a line break is quoted, doubling its quotes, as in CSV.
+ *
+ * Since {@link Printer} methods throw no checked exceptions, an error writing
+ * to the channel is raised as an {@link UncheckedIOException}.
+ */
+public class DelimitedExporter implements Printer, Flushable, Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final char separator;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /** No field was written yet on the current line */
+    private boolean lineStart = true;
+
+    /**
+     * @param channel   the channel to write to
+     * @param separator the character between fields, ASCII
+     */
+    public DelimitedExporter(WritableByteChannel channel, char separator) {
+        if (separator >= 0x80 || separator == '"' || separator == '\n' || separator == '\r')
+            throw new IllegalArgumentException("Invalid separator " + separator);
+        this.channel = channel;
+        this.separator = separator;
+    }
+
+    /**
+     * Exports as CSV.
+     *
+     * @param channel the channel to write to
+     */
+    public DelimitedExporter(WritableByteChannel channel) {
+        this(channel, ',');
+    }
+
+    /**
+     * @param out       the stream to write to
+     * @param separator the character between fields, ASCII
+     */
+    public DelimitedExporter(OutputStream out, char separator) {
+        this(Channels.newChannel(out), separator);
+    }
+
+    /**
+     * Exports as CSV.
+     *
+     * @param out the stream to write to
+     */
+    public DelimitedExporter(OutputStream out) {
+        this(out, ',');
+    }
+
+    @Override
+    public void visit(Client client) {
+        field("CLIENT");
+        field(client.getKey());
+        field(client.getName());
+        field(client.getNif());
+        field(client.getTypeLabel());
+        field(client.getPaid());
+        field(client.getDebt());
+        endLine();
+    }
+
+    @Override
+    public void visit(FancyTerminal terminal) {
+        terminal("FANCY", terminal);
+    }
+
+    @Override
+    public void visit(BasicTerminal terminal) {
+        terminal("BASIC", terminal);
+    }
+
+    private void terminal(String kind, Terminal terminal) {
+        field(kind);
+        field(terminal.getKey());
+        field(terminal.getOwnerKey());
+        field(terminal.getStateLabel());
+        field(terminal.getPaid());
+        field(terminal.getDebt());
+        startField();
+        int[] friends = terminal.getFriendIds();
+        for (int i = 0; i < friends.length; i++) {
+            if (i > 0)
+                put((byte) ' ');
+            put(TerminalKey.format(friends[i]));
+        }
+        endLine();
+    }
+
+    @Override
+    public void visit(TextCommunication communication) {
+        communication("TEXT", communication);
+    }
+
+    @Override
+    public void visit(VoiceCommunication communication) {
+        communication("VOICE", communication);
+    }
+
+    @Override
+    public void visit(VideoCommunication communication) {
+        communication("VIDEO", communication);
+    }
+
+    private void communication(String kind, Communication communication) {
+        field(kind);
+        field(communication.getKey());
+        field(TerminalKey.format(communication.getSenderId()));
+        field(TerminalKey.format(communication.getReceiverId()));
+        field(communication.getUnits());
+        field(communication.getPrice());
+        field(communication.isPaid() ? "PAID" : "UNPAID");
+        field(communication.isFinished() ? "FINISHED" : "ONGOING");
+        endLine();
+    }
+
+    @Override
+    public void visit(OffToIdleNotification notification) {
+        notification("OFF_TO_IDLE", notification.getId());
+    }
+
+    @Override
+    public void visit(OffToSilentNotification notification) {
+        notification("OFF_TO_SILENT", notification.getId());
+    }
+
+    @Override
+    public void visit(BusyToIdleNotification notification) {
+        notification("BUSY_TO_IDLE", notification.getId());
+    }
+
+    @Override
+    public void visit(SilentToIdleNotification notification) {
+        notification("SILENT_TO_IDLE", notification.getId());
+    }
+
+    private void notification(String kind, int terminalId) {
+        field(kind);
+        field(TerminalKey.format(terminalId));
+        endLine();
+    }
+
+    private void startField() {
+        if (!lineStart)
+            put((byte) separator);
+        lineStart = false;
+    }
+
+    private void field(String value) {
+        startField();
+        if (!needsQuotes(value)) {
+            put(value);
+            return;
+        }
+        put((byte) '"');
+        int from = 0;
+        for (int quote; (quote = value.indexOf('"', from)) >= 0; from = quote + 1) {
+            put(value.substring(from, quote + 1));
+            put((byte) '"');
+        }
+        put(value.substring(from));
+        put((byte) '"');
+    }
+
+    private boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == separator || c == '"' || c == '\n' || c == '\r')
+                return true;
+        }
+        return false;
+    }
+
+    private void field(long value) {
+        startField();
+        if (value < 0) {
+            put((byte) '-');
+            if (value == Long.MIN_VALUE) {
+                put(Long.toString(value).substring(1));
+                return;
+            }
+            value = -value;
+        }
+        long digits = 1;
+        while (digits <= value / 10)
+            digits *= 10;
+        for (; digits > 0; digits /= 10)
+            put((byte) ('0' + value / digits % 10));
+    }
+
+    private void field(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+            field((long) value);
+        else
+            field(Double.toString(value));
+    }
+
+    private void endLine() {
+        put((byte) '\n');
+        lineStart = true;
+    }
+
+    private void put(byte b) {
+        if (!buffer.hasRemaining())
+            drain();
+        buffer.put(b);
+    }
+
+    private void put(String value) {
+        CharBuffer chars = CharBuffer.wrap(value);
+        encoder.reset();
+        while (encoder.encode(chars, buffer, true).isOverflow())
+            drain();
+        while (encoder.flush(buffer).isOverflow())
+            drain();
+    }
+
+    /** Writes out the buffer, leaving it empty */
+    private void drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Writes out the lines still buffered.
+     */
+    @Override
+    public void flush() throws IOException {
+        try {
+            drain();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Writes out the lines still buffered and closes the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package prr;
+
+import static prr.Networks.check;
+import static prr.Networks.describe;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import prr.terminals.Terminal;
+
+/**
+ * Operations run from several threads on a network in concurrent mode keep
+ * its totals and indexes consistent, and reach its journal whole.
+ */
+public class ConcurrentNetworkTest {
+
+    private static final int THREADS = 8;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("prr-concurrent");
+        try {
+            String file = directory.resolve("network.dat").toString();
+            NetworkManager manager = new NetworkManager();
+            Network network = manager.getNetwork();
+            Networks.populate(network, 200, 2);
+            manager.setConcurrent(true);
+            manager.saveAs(file);
+            manager.awaitSave();
+
+            List<Thread> threads = new ArrayList<>();
+            List<Throwable> failures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                Random random = new Random(21 + i);
+                Thread thread = new Thread(() -> Networks.operate(network, random, 5000));
+                thread.setUncaughtExceptionHandler((t, e) -> {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            // registrations and lookups go on alongside
+            for (int i = 0; i < 200; i++) {
+                network.registerClient("late" + i, "Late " + i, 200000 + i);
+                network.registerTerminal(String.valueOf(900000 + i), "BASIC", "late" + i);
+                check(network.findClient("late" + i) != null, "client not found once registered");
+                check(network.findTerminal(900000 + i) != null, "terminal not found once registered");
+            }
+            for (Thread thread : threads)
+                thread.join();
+            check(failures.isEmpty(), "operation failed: " + failures);
+
+            check(network.isBalanceConsistent(), "totals out of step");
+            for (Terminal terminal : network.getTerminals())
+                check(network.findTerminal(terminal.getId()) == terminal, "terminal index out of step");
+            manager.save();
+            manager.awaitSave();
+            check(describe(Networks.load(file)).equals(describe(network)), "journal out of step");
+        } finally {
+            Networks.delete(directory);
+        }
+    }
+}
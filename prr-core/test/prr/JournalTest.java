@@ -0,0 +1,116 @@
+package prr;
+
+import static prr.Networks.check;
+import static prr.Networks.describe;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import prr.exceptions.InvalidCommunicationException;
+import prr.exceptions.OffTerminalException;
+import prr.exceptions.UnavailableFileException;
+import prr.terminals.Terminal;
+
+/**
+ * Changes reach the journal as they are made, and are replayed on load, past
+ * a torn last record and across the snapshots that fold the journal. Rejected
+ * changes are not recorded, and a journal that doesn't apply is refused.
+ */
+public class JournalTest {
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("prr-journal");
+        try {
+            String file = directory.resolve("network.dat").toString();
+            Path journal = Path.of(file + Journal.SUFFIX);
+            Random random = new Random(14);
+
+            NetworkManager manager = new NetworkManager();
+            Networks.populate(manager.getNetwork(), 20, 3);
+            manager.saveAs(file);
+            manager.awaitSave();
+
+            // left unsaved, as if the application had crashed
+            Networks.operate(manager.getNetwork(), random, 500);
+            String expected = describe(manager.getNetwork());
+            check(Files.exists(journal) && Files.size(journal) > 0, "changes not written ahead");
+            check(describe(Networks.load(file)).equals(expected), "unsaved changes not replayed");
+
+            // a record torn by a crash is dropped, and later ones still replay
+            Files.write(journal, new byte[] { 0, 0, 0, 40, 1, 2, 3 }, StandardOpenOption.APPEND);
+            NetworkManager recovered = new NetworkManager();
+            recovered.load(file);
+            check(describe(recovered.getNetwork()).equals(expected), "torn record not skipped");
+            Networks.operate(recovered.getNetwork(), random, 300);
+            recovered.save();
+            recovered.awaitSave();
+            expected = describe(recovered.getNetwork());
+            check(describe(Networks.load(file)).equals(expected), "records after a torn one lost");
+
+            // the journal is folded into new snapshots as it grows, while
+            // changes go on being made
+            long largest = 0;
+            boolean folded = false;
+            for (int round = 0; round < 20 && !folded; round++) {
+                Networks.operate(recovered.getNetwork(), random, 2000);
+                largest = Math.max(largest, Files.size(journal));
+                recovered.save();
+                Networks.operate(recovered.getNetwork(), random, 100);
+                recovered.awaitSave();
+                folded = !Files.exists(journal) || Files.size(journal) < largest;
+            }
+            check(folded, "journal never folded");
+            Networks.operate(recovered.getNetwork(), random, 100);
+            expected = describe(recovered.getNetwork());
+            check(describe(Networks.load(file)).equals(expected), "changes lost while folding the journal");
+
+            // rejected changes are not recorded
+            Network network = recovered.getNetwork();
+            network.registerClient("late", "Late", 999999);
+            network.registerTerminal("999999", "BASIC", "late");
+            Terminal terminal = network.getTerminal("999999");
+            terminal.toOff();
+            long size = Files.size(journal);
+            try {
+                terminal.toOff();
+                check(false, "terminal turned off twice");
+            } catch (OffTerminalException e) {
+                // rejected
+            }
+            try {
+                terminal.payCommunication(1);
+                check(false, "communication not made paid");
+            } catch (InvalidCommunicationException e) {
+                // rejected
+            }
+            check(Files.size(journal) == size, "rejected changes recorded");
+            check(describe(Networks.load(file)).equals(describe(network)), "recorded changes not replayed");
+
+            // a journal whose changes don't apply to its snapshot is refused
+            String off = directory.resolve("off.dat").toString();
+            String on = directory.resolve("on.dat").toString();
+            for (String name : new String[] { off, on }) {
+                NetworkManager late = new NetworkManager();
+                late.getNetwork().registerClient("late", "Late", 999999);
+                late.getNetwork().registerTerminal("999999", "BASIC", "late");
+                if (name == off)
+                    late.getNetwork().getTerminal("999999").toOff();
+                late.saveAs(name);
+                late.awaitSave();
+                if (name == on)
+                    late.getNetwork().getTerminal("999999").toOff();
+            }
+            Files.copy(Path.of(on + Journal.SUFFIX), Path.of(off + Journal.SUFFIX));
+            try {
+                Networks.load(off);
+                check(false, "journal that doesn't apply replayed");
+            } catch (UnavailableFileException e) {
+                // refused
+            }
+        } finally {
+            Networks.delete(directory);
+        }
+    }
+}
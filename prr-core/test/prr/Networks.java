@@ -0,0 +1,183 @@
+package prr;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import prr.clients.Client;
+import prr.communications.Communication;
+import prr.communications.TextCommunication;
+import prr.notifications.Notification;
+import prr.observers.Observer;
+import prr.terminals.Terminal;
+
+/**
+ * Networks to test with, and what is compared of them.
+ */
+final class Networks {
+
+    private Networks() {
+        // static helpers only
+    }
+
+    /**
+     * @throws AssertionError with the message if the condition doesn't hold
+     */
+    static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    /**
+     * Registers clients, each with basic and fancy terminals in turn.
+     *
+     * @param clients   number of clients
+     * @param terminals number of terminals of each client
+     */
+    static void populate(Network network, int clients, int terminals) throws Exception {
+        for (int i = 0; i < clients; i++) {
+            String key = "client" + i;
+            network.registerClient(key, "Client " + i, 100000 + i);
+            for (int j = 0; j < terminals; j++)
+                network.registerTerminal(String.valueOf(100000 + i * terminals + j), j % 2 == 0 ? "BASIC" : "FANCY",
+                        key);
+        }
+    }
+
+    /**
+     * Runs operations on random terminals of a network, ignoring those it
+     * rejects.
+     *
+     * @param count number of operations
+     */
+    static void operate(Network network, Random random, int count) {
+        List<Terminal> terminals = new ArrayList<>(network.getTerminals());
+        for (int i = 0; i < count; i++) {
+            Terminal terminal = terminals.get(random.nextInt(terminals.size()));
+            String other = terminals.get(random.nextInt(terminals.size())).getKey();
+            try {
+                switch (random.nextInt(11)) {
+                    case 0:
+                    case 1:
+                        terminal.sendText(other, "message " + random.nextInt(100), network);
+                        break;
+                    case 2:
+                        terminal.startInteractiveCommunication(other, random.nextBoolean() ? "VOICE" : "VIDEO",
+                                network);
+                        break;
+                    case 3:
+                        if (terminal.canEndCurrentCommunication())
+                            terminal.endCommunication(1 + random.nextInt(30));
+                        break;
+                    case 4:
+                        for (Communication communication : terminal.getMadeCommunications())
+                            if (communication.isFinished() && !communication.isPaid()) {
+                                terminal.payCommunication(communication.getKey());
+                                break;
+                            }
+                        break;
+                    case 5:
+                        terminal.toOff();
+                        break;
+                    case 6:
+                        terminal.toSilence();
+                        break;
+                    case 7:
+                        terminal.toOn();
+                        break;
+                    case 8:
+                        terminal.addFriend(other, network);
+                        break;
+                    case 9:
+                        terminal.removeFriend(other, network);
+                        break;
+                    default:
+                        if (random.nextBoolean())
+                            network.enableNotifications(terminal.getOwnerKey());
+                        else
+                            network.disableNotifications(terminal.getOwnerKey());
+                        break;
+                }
+            } catch (Exception e) {
+                // rejected, as it would be in the application
+            }
+        }
+    }
+
+    /**
+     * @return everything a network holds, in a form equal for equal networks
+     */
+    static String describe(Network network) {
+        StringBuilder description = new StringBuilder();
+        description.append(network.getLastCommunicationKey()).append(' ').append(network.getGlobalPayments())
+                .append(' ').append(network.getGlobalDebts()).append('\n');
+        for (Client client : network.getClients()) {
+            description.append(client.getKey()).append(' ').append(client.getName()).append(' ')
+                    .append(client.getNif()).append(' ').append(client.getTypeLabel()).append(' ')
+                    .append(client.getActiveNotifications()).append(' ').append(client.getTextCount()).append(' ')
+                    .append(client.getVideoCount()).append(' ').append(client.getPaid()).append(' ')
+                    .append(client.getDebt());
+            for (Notification notification : client.getNotifications())
+                description.append(' ').append(notification.getClass().getSimpleName()).append(notification.getId());
+            for (Terminal terminal : client.getTerminals())
+                description.append(' ').append(terminal.getId());
+            description.append('\n');
+        }
+        for (Terminal terminal : network.getTerminals()) {
+            int[] friends = terminal.getFriendIds().clone();
+            Arrays.sort(friends);
+            description.append(terminal.getId()).append(' ').append(terminal.getClass().getSimpleName()).append(' ')
+                    .append(terminal.getOwnerKey()).append(' ').append(terminal.getStateLabel()).append(' ')
+                    .append(terminal.getSavedState() == null ? "-" : terminal.getSavedState().getLabel())
+                    .append(' ').append(terminal.getPaid()).append(' ').append(terminal.getDebt()).append(' ')
+                    .append(Arrays.toString(friends));
+            for (Observer observer : terminal.getTextCommunicationObservers())
+                description.append(" t").append(((Client) observer).getKey());
+            for (Observer observer : terminal.getInteractiveCommunicationObservers())
+                description.append(" i").append(((Client) observer).getKey());
+            description.append(' ').append(
+                    terminal.getCurrentCommunication() == null ? "-" : terminal.getCurrentCommunication().getKey());
+            for (Communication communication : terminal.getMadeCommunications())
+                description.append(" m").append(communication.getKey());
+            for (Communication communication : terminal.getReceivedCommunications())
+                description.append(" r").append(communication.getKey());
+            description.append('\n');
+        }
+        for (Communication communication : network.getCommunications())
+            description.append(communication.getKey()).append(' ')
+                    .append(communication.getClass().getSimpleName()).append(' ')
+                    .append(communication.getSenderId()).append(' ').append(communication.getReceiverId())
+                    .append(' ').append(communication.isPaid()).append(' ').append(communication.isFinished())
+                    .append(' ').append(communication.getUnits()).append(' ').append(communication.getPrice())
+                    .append(' ').append(communication instanceof TextCommunication
+                            ? ((TextCommunication) communication).getMessage()
+                            : "")
+                    .append('\n');
+        return description.toString();
+    }
+
+    /**
+     * @return the network held in a file, as the application loads it
+     */
+    static Network load(String filename) throws Exception {
+        NetworkManager manager = new NetworkManager();
+        manager.load(filename);
+        return manager.getNetwork();
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     */
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package prr;
+
+import static prr.Networks.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import prr.notifications.AsyncDelivery;
+import prr.notifications.DeliveryMethod;
+import prr.notifications.Notification;
+import prr.notifications.NotificationQueue;
+import prr.notifications.NotificationQueue.OverflowPolicy;
+import prr.notifications.OffToIdleNotification;
+
+/**
+ * A full notification queue blocks, drops or delivers on the caller's thread,
+ * as its policy says, and each client gets its notifications in the order
+ * they were queued.
+ */
+public class NotificationQueueTest {
+
+    private static final int CAPACITY = 4;
+
+    /** Keeps the identities of the notifications delivered to it */
+    private static class Recorder implements DeliveryMethod, Serializable {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final List<Integer> delivered = new ArrayList<>();
+
+        @Override
+        public synchronized void deliver(Notification notification) {
+            delivered.add(notification.getId());
+        }
+
+        synchronized List<Integer> getDelivered() {
+            return new ArrayList<>(delivered);
+        }
+    }
+
+    /** Holds the worker in its first delivery until let go */
+    private static class Gate extends Recorder {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient CountDownLatch entered = new CountDownLatch(1);
+        private final transient CountDownLatch open = new CountDownLatch(1);
+
+        @Override
+        public void deliver(Notification notification) {
+            entered.countDown();
+            try {
+                open.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.deliver(notification);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        drop();
+        block();
+        deliver();
+        order();
+        serialize();
+    }
+
+    /**
+     * Fills a queue behind a worker held in its first delivery.
+     *
+     * @return the notifications queued, the first of them taken by the worker
+     */
+    private static int fill(NotificationQueue queue, Gate gate) throws InterruptedException {
+        queue.submit(gate, new OffToIdleNotification(0));
+        check(gate.entered.await(10, TimeUnit.SECONDS), "worker never delivered");
+        for (int i = 1; i <= CAPACITY; i++)
+            queue.submit(gate, new OffToIdleNotification(i));
+        return CAPACITY + 1;
+    }
+
+    private static List<Integer> upTo(int count) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            ids.add(i);
+        return ids;
+    }
+
+    private static void drop() throws InterruptedException {
+        NotificationQueue queue = new NotificationQueue(CAPACITY, OverflowPolicy.DROP);
+        Gate gate = new Gate();
+        int queued = fill(queue, gate);
+        for (int i = 0; i < 3; i++)
+            queue.submit(gate, new OffToIdleNotification(queued + i));
+        check(queue.getDropped() == 3, queue.getDropped() + " dropped instead of 3");
+        gate.open.countDown();
+        queue.close();
+        check(gate.getDelivered().equals(upTo(queued)), "dropping delivered " + gate.getDelivered());
+    }
+
+    private static void block() throws InterruptedException {
+        NotificationQueue queue = new NotificationQueue(CAPACITY, OverflowPolicy.BLOCK);
+        Gate gate = new Gate();
+        int queued = fill(queue, gate);
+        Thread caller = new Thread(() -> queue.submit(gate, new OffToIdleNotification(queued)));
+        caller.start();
+        caller.join(200);
+        check(caller.isAlive(), "full queue did not block");
+        gate.open.countDown();
+        caller.join(10000);
+        check(!caller.isAlive(), "blocked caller never let through");
+        queue.close();
+        check(queue.getDropped() == 0, "blocking dropped notifications");
+        check(gate.getDelivered().equals(upTo(queued + 1)), "blocking delivered " + gate.getDelivered());
+    }
+
+    private static void deliver() throws InterruptedException {
+        NotificationQueue queue = new NotificationQueue(CAPACITY, OverflowPolicy.DELIVER);
+        Gate gate = new Gate();
+        int queued = fill(queue, gate);
+        Thread caller = new Thread(() -> queue.submit(gate, new OffToIdleNotification(queued)));
+        caller.start();
+        gate.open.countDown();
+        caller.join(10000);
+        check(!caller.isAlive(), "caller never delivered");
+        queue.close();
+        check(queue.getDropped() == 0, "delivering dropped notifications");
+        check(gate.getDelivered().equals(upTo(queued + 1)), "delivering delivered " + gate.getDelivered());
+    }
+
+    /** Notifications to several clients, from several threads, past the capacity */
+    private static void order() throws InterruptedException {
+        for (OverflowPolicy policy : new OverflowPolicy[] { OverflowPolicy.BLOCK, OverflowPolicy.DELIVER }) {
+            NotificationQueue queue = new NotificationQueue(CAPACITY, policy);
+            Recorder[] clients = { new Recorder(), new Recorder(), new Recorder() };
+            List<Thread> threads = new ArrayList<>();
+            for (Recorder client : clients) {
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < 5000; i++)
+                        queue.submit(client, new OffToIdleNotification(i));
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+            queue.flush();
+            for (Recorder client : clients)
+                check(client.getDelivered().equals(upTo(5000)), policy + " delivered out of order");
+
+            queue.close();
+            Recorder late = new Recorder();
+            queue.submit(late, new OffToIdleNotification(0));
+            check(late.getDelivered().equals(upTo(1)), "closed queue did not deliver at once");
+        }
+    }
+
+    /** The queue is not serialized, so what is read back is the target alone */
+    private static void serialize() throws Exception {
+        NotificationQueue queue = new NotificationQueue(CAPACITY, OverflowPolicy.BLOCK);
+        Recorder target = new Recorder();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new AsyncDelivery(target, queue));
+        }
+        Object read;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = in.readObject();
+        }
+        check(read instanceof Recorder, "read back as " + read.getClass().getName());
+        queue.close();
+    }
+}
@@ -0,0 +1,119 @@
+package prr;
+
+import static prr.Networks.check;
+import static prr.Networks.describe;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import prr.exceptions.UnavailableFileException;
+
+/**
+ * A snapshot written in the background holds the network as it was saved,
+ * and replaces the file atomically: if it can't be written, the file is left
+ * as it was and the network unsaved, the next save or load reports it, and
+ * the save after writes a new snapshot.
+ */
+public class SaveTest {
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("prr-save");
+        try {
+            String file = directory.resolve("network.dat").toString();
+            NetworkManager manager = new NetworkManager();
+            Network network = manager.getNetwork();
+            Networks.populate(network, 30, 2);
+            String populated = describe(network);
+            manager.saveAs(file);
+            Networks.operate(network, new Random(7), 300);
+            manager.awaitSave();
+            check(describe(Networks.load(withoutJournal(directory, "network.dat"))).equals(populated),
+                    "snapshot changed while written");
+            Networks.operate(network, new Random(16), 300);
+            manager.save();
+            manager.awaitSave();
+            String expected = describe(network);
+            Map<Path, byte[]> saved = contents(directory);
+
+            // the segments of the next snapshot can't take their names
+            for (int i = 0; i < 100; i++) {
+                Path blocker = directory.resolve("network.dat." + i);
+                if (!Files.exists(blocker))
+                    Files.createDirectories(blocker.resolve("blocker"));
+            }
+            network.getJournal().requireSnapshot();
+            manager.save();
+            try {
+                manager.save();
+                check(false, "failed snapshot not reported by the next save");
+            } catch (IOException e) {
+                check(e.getCause() != null, "failed snapshot reported without its cause");
+            }
+            check(network.isUnsaved(), "network saved by a failed snapshot");
+            manager.save();
+            try {
+                manager.load(file);
+                check(false, "failed snapshot not reported by loading");
+            } catch (UnavailableFileException e) {
+                check(e.getCause() instanceof IOException, "failed snapshot reported without its cause");
+            }
+            check(manager.getNetwork() == network, "unsaved network replaced by loading");
+            Map<Path, byte[]> left = contents(directory);
+            left.keySet().removeIf(path -> path.getFileName().toString().equals("blocker"));
+            check(left.keySet().equals(saved.keySet()), "files added or removed by a failed snapshot");
+            for (Map.Entry<Path, byte[]> entry : saved.entrySet())
+                check(Arrays.equals(entry.getValue(), left.get(entry.getKey())),
+                        entry.getKey() + " changed by a failed snapshot");
+            check(describe(Networks.load(file)).equals(expected), "file unreadable after a failed snapshot");
+
+            // the next save writes the whole snapshot again
+            try (Stream<Path> paths = Files.list(directory)) {
+                for (Path path : (Iterable<Path>) paths::iterator)
+                    if (Files.isDirectory(path))
+                        Networks.delete(path);
+            }
+            Networks.operate(network, new Random(61), 100);
+            manager.save();
+            manager.awaitSave();
+            check(describe(Networks.load(file)).equals(describe(network)), "snapshot after a failed one");
+        } finally {
+            Networks.delete(directory);
+        }
+    }
+
+    /**
+     * Copies a snapshot, but not its journal, to a directory of its own.
+     *
+     * @return the copy
+     */
+    private static String withoutJournal(Path directory, String name) throws Exception {
+        Path copy = Files.createDirectory(directory.resolve("copy"));
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                String file = path.getFileName().toString();
+                if (file.startsWith(name) && !file.endsWith(Journal.SUFFIX))
+                    Files.copy(path, copy.resolve(file));
+            }
+        }
+        return copy.resolve(name).toString();
+    }
+
+    /**
+     * @return the files under a directory, by path, and their contents
+     */
+    private static Map<Path, byte[]> contents(Path directory) throws Exception {
+        Map<Path, byte[]> contents = new TreeMap<>();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator)
+                if (Files.isRegularFile(path))
+                    contents.put(path, Files.readAllBytes(path));
+        }
+        return contents;
+    }
+}
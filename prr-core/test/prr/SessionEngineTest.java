@@ -0,0 +1,49 @@
+package prr;
+
+import static prr.Networks.check;
+
+import prr.communications.Communication;
+import prr.terminals.Terminal;
+
+/**
+ * Sessions run their operations, on virtual threads or on a task pool, and
+ * leave the network consistent, with no communication open.
+ */
+public class SessionEngineTest {
+
+    private static final int SESSIONS = 200;
+    private static final int OPERATIONS = 50;
+
+    public static void main(String[] args) throws Exception {
+        for (boolean platformThreads : new boolean[] { false, true }) {
+            System.setProperty("prr.sessions.platformThreads", String.valueOf(platformThreads));
+            Network network = new Network();
+            Networks.populate(network, 30, 2);
+            network.setConcurrent(true);
+
+            SessionEngine engine = new SessionEngine(network);
+            engine.setSessions(SESSIONS);
+            engine.setOperationsPerSession(OPERATIONS);
+            engine.setParallelism(4);
+            engine.setSeed(24);
+            SessionStatistics statistics = engine.run();
+            String mode = statistics.usedVirtualThreads() ? "virtual threads" : "task pool";
+
+            check(!platformThreads || !statistics.usedVirtualThreads(), "platform threads not forced");
+            check(statistics.getSessions() == SESSIONS, mode + ": " + statistics.getSessions() + " sessions");
+            check(statistics.getOperations() == (long) SESSIONS * OPERATIONS,
+                    mode + ": " + statistics.getOperations() + " operations attempted");
+            check(statistics.getRejected() > 0 && statistics.getRejected() < statistics.getOperations(),
+                    mode + ": " + statistics.getRejected() + " operations rejected");
+            check(network.isBalanceConsistent(), mode + ": totals out of step");
+            for (Terminal terminal : network.getTerminals())
+                check(!terminal.isBusy(), mode + ": " + terminal.getKey() + " left busy");
+            boolean communicated = false;
+            for (Communication communication : network.getCommunications()) {
+                check(communication.isFinished(), mode + ": communication " + communication.getKey() + " left open");
+                communicated = true;
+            }
+            check(communicated, mode + ": no communication made");
+        }
+    }
+}
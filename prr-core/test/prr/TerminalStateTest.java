@@ -0,0 +1,90 @@
+package prr;
+
+import static prr.Networks.check;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import prr.exceptions.BusyTerminalException;
+import prr.exceptions.OffTerminalException;
+import prr.terminals.Terminal;
+import prr.terminals.states.TerminalState;
+
+/**
+ * Threads racing to change the state of a terminal leave it in a state one of
+ * them could have left it in alone: one start of a communication wins, and
+ * ending it returns to the saved state once.
+ */
+public class TerminalStateTest {
+
+    private static final int THREADS = 4;
+    private static final int ROUNDS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        Network network = new Network();
+        network.registerClient("c", "C", 1);
+        network.registerTerminal("100000", "FANCY", "c");
+        Terminal terminal = network.getTerminal("100000");
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                TerminalState before = round % 2 == 0 ? terminal.getIdleState() : terminal.getSilenceState();
+                terminal.setState(before);
+
+                int started = race(pool, () -> terminal.getState().startCommunication());
+                check(started == 1, started + " starts won in round " + round);
+                check(terminal.isBusy(), "not busy in round " + round);
+                check(terminal.getSavedState() == before, "saved " + terminal.getSavedState().getLabel()
+                        + " instead of " + before.getLabel() + " in round " + round);
+
+                race(pool, () -> terminal.getState().endCommunication());
+                check(terminal.getState() == before, "ended in " + terminal.getStateLabel() + " in round " + round);
+
+                int switched = race(pool, () -> terminal.getState().toOff());
+                check(switched == 1, switched + " switches won in round " + round);
+                check(terminal.isOff(), "not off in round " + round);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** An operation on the terminal's state, which may be refused */
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs an operation from every thread at once.
+     *
+     * @return how many of them went through
+     */
+    private static int race(ExecutorService pool, Operation operation) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Callable<Boolean> attempt = () -> {
+                start.await();
+                try {
+                    operation.run();
+                    return true;
+                } catch (BusyTerminalException | OffTerminalException e) {
+                    return false;
+                }
+            };
+            results.add(pool.submit(attempt));
+        }
+        start.countDown();
+        int won = 0;
+        for (Future<Boolean> result : results)
+            if (result.get())
+                won++;
+        return won;
+    }
+}
@@ -16,6 +16,18 @@ for x in tests/*.in; do
     fi
 done
 
+(cd prr-core; make -s test) || echo "FAIL: prr-core/test does not build."
+for x in prr-core/test/prr/*Test.java; do
+    t=`basename ${x%.java}`
+    java -ea -cp prr-core/prr-core.jar:prr-core/test prr.$t > ${x%.java}.log 2>&1
+    if [ $? -ne 0 ]; then
+        echo "FAIL: $x. See file ${x%.java}.log " ;
+    else
+        echo -n "."
+        rm -f ${x%.java}.log ;
+    fi
+done
+
 #rm -f saved*
 
 echo "Done."